@@ -0,0 +1,148 @@
+package pl.bpiatek.linkshortenerui;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+import pl.bpiatek.linkshortenerui.dto.DashboardLinkResponse;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.MetricEntryResponse;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Deterministic test data shaped like what the gateway returns: the same seed gives the same links,
+ * so results of different commits measure the same input.
+ */
+public final class BenchmarkData {
+
+    private static final Instant NOW = Instant.parse("2025-06-01T12:00:00Z");
+    private static final String[] COUNTRIES = {"PL", "DE", "US", "GB", "FR", "NL", "CZ", "UA", "SE", "ES"};
+    private static final String[] DEVICES = {"Desktop", "Mobile", "Tablet", "Bot"};
+    private static final String[] SYSTEMS = {"Windows", "Android", "iOS", "macOS", "Linux"};
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * The object mapper as Spring Boot configures it for the RestClient message converters.
+     */
+    public static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+    }
+
+    /**
+     * An engine for the templates in src/main/resources, set up like Spring Boot's (SpEL, template
+     * cache on).
+     */
+    public static SpringTemplateEngine templateEngine() {
+        var templateResolver = new ClassLoaderTemplateResolver();
+        templateResolver.setPrefix("templates/");
+        templateResolver.setSuffix(".html");
+        templateResolver.setTemplateMode(TemplateMode.HTML);
+        templateResolver.setCharacterEncoding("UTF-8");
+        templateResolver.setCacheable(true);
+
+        var templateEngine = new SpringTemplateEngine();
+        templateEngine.setTemplateResolver(templateResolver);
+        return templateEngine;
+    }
+
+    public static String jwt(String userId, String email, long seed) {
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        var header = encoder.encodeToString("{\"alg\":\"RS256\",\"typ\":\"JWT\"}".getBytes(UTF_8));
+        var payload = encoder.encodeToString(("{\"sub\":\"" + userId + "\",\"userId\":\"" + userId
+                + "\",\"email\":\"" + email + "\",\"roles\":[\"USER\"],\"iat\":" + NOW.getEpochSecond()
+                + ",\"exp\":" + NOW.plus(15, ChronoUnit.MINUTES).getEpochSecond() + "}").getBytes(UTF_8));
+        // RS256 signatures are 256 bytes
+        var signature = new byte[256];
+        new Random(seed).nextBytes(signature);
+        return header + "." + payload + "." + encoder.encodeToString(signature);
+    }
+
+    public static List<LinkDto> links(int count) {
+        var random = new Random(count);
+        var links = new ArrayList<LinkDto>(count);
+        for (var i = 0; i < count; i++) {
+            var created = NOW.minus(random.nextInt(365 * 24), ChronoUnit.HOURS);
+            links.add(new LinkDto(
+                    (long) i + 1,
+                    "lnk" + Integer.toString(100_000 + i, 36),
+                    "user-1",
+                    "s" + Integer.toString(1_000_000 + i, 36),
+                    "https://www.example.com/articles/" + (2020 + i % 5) + "/" + i
+                            + "/a-reasonably-long-slug-for-the-article?utm_source=newsletter&utm_medium=email&utm_campaign=" + i,
+                    i % 3 == 0 ? null : "Link number " + i,
+                    i % 7 != 0,
+                    created,
+                    created.plus(random.nextInt(48), ChronoUnit.HOURS),
+                    random.nextInt(5_000)));
+        }
+        return links;
+    }
+
+    public static PageResponse<LinkDto> page(int size) {
+        return new PageResponse<>(links(size), 0, size, size * 5L, 5);
+    }
+
+    /**
+     * Link details with the given number of metric rows spread over countries, devices and systems.
+     */
+    public static DashboardLinkResponse linkDetails(int metricRows) {
+        var link = links(1).getFirst();
+        var perList = Math.max(1, metricRows / 3);
+        return new DashboardLinkResponse(link.linkId(), link.shortUrl(), link.longUrl(), "Link details",
+                true, link.createdAt(), link.updatedAt(), 123_456,
+                metrics(COUNTRIES, perList), metrics(DEVICES, perList), metrics(SYSTEMS, perList));
+    }
+
+    /**
+     * The page as the gateway serializes it, without the derived first/last/empty properties.
+     */
+    public static byte[] pageJson(ObjectMapper objectMapper, int size) {
+        var page = page(size);
+        var json = new LinkedHashMap<String, Object>();
+        json.put("content", page.content());
+        json.put("page", page.page());
+        json.put("size", page.size());
+        json.put("totalElements", page.totalElements());
+        json.put("totalPages", page.totalPages());
+        return json(objectMapper, json);
+    }
+
+    public static byte[] linkDetailsJson(ObjectMapper objectMapper, int metricRows) {
+        return json(objectMapper, linkDetails(metricRows));
+    }
+
+    public static byte[] json(ObjectMapper objectMapper, Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<MetricEntryResponse> metrics(String[] keys, int count) {
+        var metrics = new ArrayList<MetricEntryResponse>(count);
+        for (var i = 0; i < count; i++) {
+            var key = i < keys.length ? keys[i] : keys[i % keys.length] + "-" + i;
+            metrics.add(new MetricEntryResponse(key, count - i));
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,78 @@
+package pl.bpiatek.linkshortenerui;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.thymeleaf.context.WebContext;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.web.servlet.JakartaServletWebApplication;
+
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of the dashboard and the link details with the templates from src/main/resources, see
+ * {@link BenchmarkData#templateEngine()}. Rows are links on the dashboard
+ * and metric entries on the details page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TemplateRenderingBenchmark {
+
+    @Param({"20", "200", "2000"})
+    public int rows;
+
+    private SpringTemplateEngine templateEngine;
+    private WebContext dashboardContext;
+    private WebContext linkDetailsContext;
+
+    @Setup
+    public void setUp() {
+        templateEngine = BenchmarkData.templateEngine();
+
+        var application = JakartaServletWebApplication.buildApplication(new MockServletContext());
+        var request = new MockHttpServletRequest("GET", "/dashboard");
+        request.setParameter("size", String.valueOf(rows));
+        var exchange = application.buildExchange(request, new MockHttpServletResponse());
+
+        dashboardContext = new WebContext(exchange, Locale.ENGLISH, Map.of(
+                "page", BenchmarkData.page(rows),
+                "userEmail", "jane.doe@example.com"));
+        linkDetailsContext = new WebContext(exchange, Locale.ENGLISH, Map.of(
+                "link", BenchmarkData.linkDetails(rows),
+                "userEmail", "jane.doe@example.com"));
+    }
+
+    @Benchmark
+    public int renderDashboard() {
+        return render("dashboard", dashboardContext);
+    }
+
+    @Benchmark
+    public int renderLinkDetails() {
+        return render("link-details", linkDetailsContext);
+    }
+
+    private int render(String template, WebContext context) {
+        var writer = new StringWriter(64 * 1024);
+        templateEngine.process(template, context, writer);
+        return writer.getBuffer().length();
+    }
+}
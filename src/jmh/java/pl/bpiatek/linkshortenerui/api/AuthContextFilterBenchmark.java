@@ -0,0 +1,70 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import pl.bpiatek.linkshortenerui.BenchmarkData;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cookie lookup and claims resolution done once per request by {@link AuthContextFilter}, which
+ * replaced the per-call cookie scans in BackendApiService and TokenRefresher. Browsers send the
+ * auth cookies among others (session, consent, analytics), so the scan has to skip some.
+ * {@link RequestScopedCookieScanBenchmark} measures the lookup it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AuthContextFilterBenchmark {
+
+    private static final FilterChain NO_OP_CHAIN = (request, response) -> {
+    };
+
+    private AuthContextFilter filter;
+    private MockHttpServletRequest authenticated;
+    private MockHttpServletRequest anonymous;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() {
+        filter = new AuthContextFilter(new TokenExtractor(BenchmarkData.objectMapper()), new AuthenticatedTokens());
+        authenticated = new MockHttpServletRequest("GET", "/dashboard");
+        authenticated.setCookies(
+                new Cookie("JSESSIONID", "5F0B2E3C4D1A69788A0B1C2D3E4F5061"),
+                new Cookie("cookie_consent", "necessary,analytics"),
+                new Cookie("_ga", "GA1.1.1234567890.1717243200"),
+                new Cookie(AuthContextFilter.ACCESS_TOKEN_COOKIE, BenchmarkData.jwt("user-1", "jane.doe@example.com", 1)),
+                new Cookie(AuthContextFilter.REFRESH_TOKEN_COOKIE, BenchmarkData.jwt("user-1", "jane.doe@example.com", 2)));
+        anonymous = new MockHttpServletRequest("GET", "/");
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public Object authenticatedRequest() throws ServletException, IOException {
+        filter.doFilter(authenticated, response, NO_OP_CHAIN);
+        return authenticated.getAttribute(AuthContext.ATTRIBUTE);
+    }
+
+    @Benchmark
+    public Object anonymousRequest() throws ServletException, IOException {
+        filter.doFilter(anonymous, response, NO_OP_CHAIN);
+        return anonymous.getAttribute(AuthContext.ATTRIBUTE);
+    }
+}
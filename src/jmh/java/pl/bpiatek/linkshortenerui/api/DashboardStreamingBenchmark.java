@@ -0,0 +1,278 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.thymeleaf.context.WebContext;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.web.IWebExchange;
+import org.thymeleaf.web.servlet.JakartaServletWebApplication;
+import pl.bpiatek.linkshortenerui.BenchmarkData;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The dashboard rendered from a gateway response of the given number of rows, buffered (decoded into
+ * a {@link PageResponse} first, as below dashboard.streaming.threshold) against streamed
+ * ({@link StreamingLinkPage}, as above it). Both start from the same JSON bytes and write into a
+ * response that sends its 8KB buffer when it fills or is flushed, like the container's.
+ * <ul>
+ *     <li>firstByte*: time until the first bytes are sent, the rendering stops there</li>
+ *     <li>render*: the whole page, run with the gc profiler for the bytes allocated per page</li>
+ *     <li>liveHeap*: heap still reachable halfway through the table, reported as the liveBytes
+ *     counter. Each run collects twice, its time is meaningless.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DashboardStreamingBenchmark {
+
+    // as DashboardController flushes streamed pages
+    private static final int FLUSH_ROWS = 100;
+    // Tomcat's default response buffer
+    private static final int RESPONSE_BUFFER_SIZE = 8 * 1024;
+
+    @Param({"20", "1000", "10000"})
+    public int rows;
+
+    private ObjectMapper objectMapper;
+    private ObjectReader pageReader;
+    private SpringTemplateEngine templateEngine;
+    private IWebExchange exchange;
+    private byte[] pageJson;
+    private long halfOfThePage;
+
+    @Setup
+    public void setUp() {
+        objectMapper = BenchmarkData.objectMapper();
+        pageReader = objectMapper.readerFor(new TypeReference<PageResponse<LinkDto>>() {});
+        templateEngine = BenchmarkData.templateEngine();
+
+        var application = JakartaServletWebApplication.buildApplication(new MockServletContext());
+        var request = new MockHttpServletRequest("GET", "/dashboard");
+        request.setParameter("size", String.valueOf(rows));
+        exchange = application.buildExchange(request, new MockHttpServletResponse());
+
+        pageJson = BenchmarkData.pageJson(objectMapper, rows);
+        var response = new Response(Long.MAX_VALUE, () -> {
+        });
+        templateEngine.process("dashboard", context(BenchmarkData.page(rows)), response);
+        halfOfThePage = response.written / 2;
+    }
+
+    @Benchmark
+    public long firstByteBuffered() throws IOException {
+        return untilFirstByte(response -> render(buffered(), response));
+    }
+
+    @Benchmark
+    public long firstByteStreamed() throws IOException {
+        return untilFirstByte(response -> {
+            try (var linkPage = streamed(response)) {
+                render(linkPage, response);
+            }
+        });
+    }
+
+    @Benchmark
+    public long renderBuffered() throws IOException {
+        return render(buffered(), new Response(Long.MAX_VALUE, () -> {
+        }));
+    }
+
+    @Benchmark
+    public long renderStreamed() throws IOException {
+        var response = new Response(Long.MAX_VALUE, () -> {
+        });
+        try (var linkPage = streamed(response)) {
+            return render(linkPage, response);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 10, batchSize = 1)
+    public long liveHeapBuffered(Heap heap) throws IOException {
+        var before = heap.used();
+        return render(buffered(), new Response(halfOfThePage, () -> heap.probe(before)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 10, batchSize = 1)
+    public long liveHeapStreamed(Heap heap) throws IOException {
+        var before = heap.used();
+        var response = new Response(halfOfThePage, () -> heap.probe(before));
+        try (var linkPage = streamed(response)) {
+            return render(linkPage, response);
+        }
+    }
+
+    /**
+     * Decoded up front as the RestClient's Jackson converter does it.
+     */
+    private PageResponse<LinkDto> buffered() throws IOException {
+        return pageReader.readValue(new ByteArrayInputStream(pageJson));
+    }
+
+    private StreamingLinkPage streamed(Response response) throws IOException {
+        var gatewayResponse = new MockClientHttpResponse(pageJson, HttpStatus.OK);
+        return StreamingLinkPage.open(gatewayResponse, objectMapper, response::flush, FLUSH_ROWS);
+    }
+
+    private long render(Object linkPage, Response response) {
+        templateEngine.process("dashboard", context(linkPage), response);
+        response.flush();
+        return response.written;
+    }
+
+    private long untilFirstByte(Rendering rendering) throws IOException {
+        var response = new Response(Long.MAX_VALUE, () -> {
+        }) {
+            @Override
+            void sent() {
+                throw FirstByteSent.INSTANCE;
+            }
+        };
+        try {
+            rendering.render(response);
+        } catch (RuntimeException e) {
+            // Thymeleaf wraps what the writer throws
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause == FirstByteSent.INSTANCE) {
+                    return response.written;
+                }
+            }
+            throw e;
+        }
+        throw new IllegalStateException("The page was rendered without sending anything");
+    }
+
+    private WebContext context(Object linkPage) {
+        return new WebContext(exchange, Locale.ENGLISH, Map.of(
+                "page", linkPage,
+                "userEmail", "jane.doe@example.com"));
+    }
+
+    @FunctionalInterface
+    private interface Rendering {
+        void render(Response response) throws IOException;
+    }
+
+    /**
+     * Heap reachable after a full collection, taken once per page when the probe is reached.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+
+        public long liveBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            liveBytes = 0;
+        }
+
+        long used() {
+            System.gc();
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        void probe(long before) {
+            liveBytes = Math.max(0, used() - before);
+        }
+    }
+
+    /**
+     * The servlet response as the template sees it. Characters are counted as bytes, the page is
+     * nearly all ASCII. Sent bytes are only counted.
+     */
+    private static class Response extends Writer {
+
+        private final long probeAt;
+        private final Runnable probe;
+        private int buffered;
+        long written;
+        private boolean anythingSent;
+
+        Response(long probeAt, Runnable probe) {
+            this.probeAt = probeAt;
+            this.probe = probe;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            var before = written;
+            written += length;
+            if (before < probeAt && written >= probeAt) {
+                probe.run();
+            }
+            buffered += length;
+            if (buffered >= RESPONSE_BUFFER_SIZE) {
+                send();
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (buffered > 0) {
+                send();
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+
+        void sent() {
+        }
+
+        private void send() {
+            buffered = 0;
+            if (!anythingSent) {
+                anythingSent = true;
+                sent();
+            }
+        }
+    }
+
+    private static final class FirstByteSent extends RuntimeException {
+
+        static final FirstByteSent INSTANCE = new FirstByteSent();
+
+        private FirstByteSent() {
+            super("first byte sent", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotatedBeanDefinitionReader;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.annotation.RequestScope;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+import pl.bpiatek.linkshortenerui.BenchmarkData;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baseline for {@link AuthContextFilterBenchmark}: the cookie lookup as it was before
+ * {@link AuthContextFilter}, a {@code @RequestScope} bean created for every request that scans
+ * request.getCookies() with a stream on each call. The bean lives in a web application context with
+ * the request scope registered, so its creation and both scoped proxies (the bean and the injected
+ * request) are measured as well. Same cookies as the filter benchmark.
+ * <p>
+ * Binding the request attributes is included here only, the DispatcherServlet does it in both
+ * versions. The filter also resolves the claims, this path did not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RequestScopedCookieScanBenchmark {
+
+    private GenericWebApplicationContext context;
+    private LegacyCookieReader cookieReader;
+    private MockHttpServletRequest authenticated;
+    private MockHttpServletRequest anonymous;
+
+    @Setup
+    public void setUp() {
+        context = new GenericWebApplicationContext(new MockServletContext());
+        new AnnotatedBeanDefinitionReader(context).register(LegacyCookieReader.class);
+        context.refresh();
+        cookieReader = context.getBean(LegacyCookieReader.class);
+
+        authenticated = new MockHttpServletRequest("GET", "/dashboard");
+        authenticated.setCookies(
+                new Cookie("JSESSIONID", "5F0B2E3C4D1A69788A0B1C2D3E4F5061"),
+                new Cookie("cookie_consent", "necessary,analytics"),
+                new Cookie("_ga", "GA1.1.1234567890.1717243200"),
+                new Cookie(AuthContextFilter.ACCESS_TOKEN_COOKIE, BenchmarkData.jwt("user-1", "jane.doe@example.com", 1)),
+                new Cookie(AuthContextFilter.REFRESH_TOKEN_COOKIE, BenchmarkData.jwt("user-1", "jane.doe@example.com", 2)));
+        anonymous = new MockHttpServletRequest("GET", "/");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String authenticatedRequest() {
+        return inRequest(authenticated);
+    }
+
+    @Benchmark
+    public String anonymousRequest() {
+        return inRequest(anonymous);
+    }
+
+    private String inRequest(MockHttpServletRequest request) {
+        var attributes = new ServletRequestAttributes(request);
+        RequestContextHolder.setRequestAttributes(attributes);
+        try {
+            return cookieReader.accessToken();
+        } finally {
+            // destroys the request-scoped bean, as at the end of a real request
+            attributes.requestCompleted();
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+    /**
+     * The cookie lookup of BackendApiService before AuthContextFilter, as it was.
+     */
+    @RequestScope
+    public static class LegacyCookieReader {
+
+        private final HttpServletRequest request;
+
+        public LegacyCookieReader(HttpServletRequest request) {
+            this.request = request;
+        }
+
+        public String accessToken() {
+            return getCookie(AuthContextFilter.ACCESS_TOKEN_COOKIE);
+        }
+
+        private String getCookie(String name) {
+            if (request.getCookies() == null) return null;
+
+            return Arrays.stream(request.getCookies())
+                    .filter(c -> name.equals(c.getName()))
+                    .map(Cookie::getValue)
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
+}
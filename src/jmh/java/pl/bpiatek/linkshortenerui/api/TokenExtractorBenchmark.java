@@ -0,0 +1,57 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.bpiatek.linkshortenerui.BenchmarkData;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TokenExtractor#extractEmail(String)} runs on every authenticated request. Most requests
+ * carry a token seen before (claims cache hit), the first request after a refresh does not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TokenExtractorBenchmark {
+
+    // more distinct tokens than the claims cache holds, so nearly every lookup parses
+    private static final int DISTINCT_TOKENS = 1 << 16;
+
+    private TokenExtractor tokenExtractor;
+    private String token;
+    private String[] distinctTokens;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        tokenExtractor = new TokenExtractor(BenchmarkData.objectMapper());
+        token = BenchmarkData.jwt("user-1", "jane.doe@example.com", 1);
+        distinctTokens = new String[DISTINCT_TOKENS];
+        for (var i = 0; i < DISTINCT_TOKENS; i++) {
+            distinctTokens[i] = BenchmarkData.jwt("user-" + i, "user" + i + "@example.com", i);
+        }
+    }
+
+    @Benchmark
+    public String extractEmailCached() {
+        return tokenExtractor.extractEmail(token);
+    }
+
+    @Benchmark
+    public String extractEmailUncached() {
+        next = (next + 1) & (DISTINCT_TOKENS - 1);
+        return tokenExtractor.extractEmail(distinctTokens[next]);
+    }
+}
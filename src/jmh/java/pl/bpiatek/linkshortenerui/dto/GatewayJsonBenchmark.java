@@ -0,0 +1,60 @@
+package pl.bpiatek.linkshortenerui.dto;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.bpiatek.linkshortenerui.BenchmarkData;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of gateway responses from a stream, as the RestClient's Jackson converter does it.
+ * Rows are links per dashboard page, for link details the metric entries over all three lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GatewayJsonBenchmark {
+
+    @Param({"20", "200", "2000"})
+    public int rows;
+
+    private ObjectReader pageReader;
+    private ObjectReader linkDetailsReader;
+    private byte[] pageJson;
+    private byte[] linkDetailsJson;
+
+    @Setup
+    public void setUp() {
+        var objectMapper = BenchmarkData.objectMapper();
+        pageReader = objectMapper.readerFor(new TypeReference<PageResponse<LinkDto>>() {});
+        linkDetailsReader = objectMapper.readerFor(DashboardLinkResponse.class);
+        pageJson = BenchmarkData.pageJson(objectMapper, rows);
+        linkDetailsJson = BenchmarkData.linkDetailsJson(objectMapper, rows);
+    }
+
+    @Benchmark
+    public PageResponse<LinkDto> decodePage() throws IOException {
+        return pageReader.readValue(new ByteArrayInputStream(pageJson));
+    }
+
+    @Benchmark
+    public DashboardLinkResponse decodeLinkDetails() throws IOException {
+        return linkDetailsReader.readValue(new ByteArrayInputStream(linkDetailsJson));
+    }
+}
@@ -0,0 +1,116 @@
+package pl.bpiatek.linkshortenerui.exception;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientResponseException;
+import pl.bpiatek.linkshortenerui.BenchmarkData;
+import pl.bpiatek.linkshortenerui.dto.UpdateLinkRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Turning a gateway error into a message: a validation error with field errors, a problem detail
+ * and a body that is not JSON at all (an HTML page from a proxy). The exceptions decode their body
+ * with Jackson as the RestClient sets them up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BackendErrorMapperBenchmark {
+
+    private BackendErrorMapper errorMapper;
+    private RestClientResponseException validationError;
+    private RestClientResponseException conflict;
+    private RestClientResponseException htmlError;
+
+    @Setup
+    public void setUp() {
+        errorMapper = new BackendErrorMapper();
+        var objectMapper = BenchmarkData.objectMapper();
+
+        validationError = error(objectMapper, HttpStatus.BAD_REQUEST, MediaType.APPLICATION_PROBLEM_JSON,
+                BenchmarkData.json(objectMapper, Map.of(
+                        "type", "about:blank",
+                        "title", "Bad Request",
+                        "status", 400,
+                        "detail", "Validation failed",
+                        "instance", "/links/42",
+                        "errors", List.of(
+                                Map.of("field", "longUrl", "rejectedValue", "htp:/example", "message", "must be a valid URL"),
+                                Map.of("field", "title", "rejectedValue", "x".repeat(300), "message", "size must be at most 255"),
+                                Map.of("field", "shortUrl", "rejectedValue", "a b", "message", "may only contain letters and digits")))));
+        conflict = error(objectMapper, HttpStatus.CONFLICT, MediaType.APPLICATION_PROBLEM_JSON,
+                BenchmarkData.json(objectMapper, Map.of(
+                        "type", "about:blank",
+                        "title", "Conflict",
+                        "status", 409,
+                        "detail", "Short URL 'promo' is already taken",
+                        "instance", "/links")));
+        htmlError = error(objectMapper, HttpStatus.BAD_GATEWAY, MediaType.TEXT_HTML,
+                "<html><head><title>502 Bad Gateway</title></head><body><h1>502 Bad Gateway</h1></body></html>".getBytes(UTF_8));
+    }
+
+    @Benchmark
+    public Object validationErrorToBindingResult() {
+        var bindingResult = new BeanPropertyBindingResult(new UpdateLinkRequest(null, null, null), "updateLinkRequest");
+        var model = new ExtendedModelMap();
+        errorMapper.map(validationError, bindingResult, model);
+        return bindingResult;
+    }
+
+    @Benchmark
+    public String validationErrorMessage() {
+        return errorMapper.message(validationError);
+    }
+
+    @Benchmark
+    public String conflictMessage() {
+        return errorMapper.message(conflict);
+    }
+
+    @Benchmark
+    public String nonJsonMessage() {
+        return errorMapper.message(htmlError);
+    }
+
+    private static RestClientResponseException error(ObjectMapper objectMapper, HttpStatus status,
+                                                     MediaType contentType, byte[] body) {
+        var headers = new HttpHeaders();
+        headers.setContentType(contentType);
+        var exception = status.is4xxClientError()
+                ? HttpClientErrorException.create(status, status.getReasonPhrase(), headers, body, UTF_8)
+                : new RestClientResponseException(status.getReasonPhrase(), status, status.getReasonPhrase(), headers, body, UTF_8);
+        exception.setBodyConvertFunction(type -> {
+            try {
+                return objectMapper.readValue(body, objectMapper.constructType(type.getType()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return exception;
+    }
+}
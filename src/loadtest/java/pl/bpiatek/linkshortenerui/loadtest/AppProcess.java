@@ -0,0 +1,180 @@
+package pl.bpiatek.linkshortenerui.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import pl.bpiatek.linkshortenerui.LinkShortenerUiApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The UI in its own JVM, started from the harness classpath with the pod's JVM flags, so its GC
+ * pauses and resident memory are not mixed up with the driver's and the stub's.
+ */
+final class AppProcess implements AutoCloseable {
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private final Process process;
+    private final URI uri;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService rssSampler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong peakRssBytes = new AtomicLong();
+
+    /**
+     * A snapshot of the jvm.gc.pause timer, the difference of two covers the pauses in between.
+     */
+    record GcPauses(long count, double totalMillis, double maxMillis) {
+
+        GcPauses since(GcPauses start) {
+            return new GcPauses(count - start.count, totalMillis - start.totalMillis, maxMillis);
+        }
+    }
+
+    AppProcess(LoadTest.Settings settings, LoadTest.Variant variant, URI gatewayUri, Path logFile)
+            throws IOException, InterruptedException {
+        var port = freePort();
+        this.uri = URI.create("http://127.0.0.1:" + port);
+        this.httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(List.of(settings.appJvmArgs().trim().split("\\s+")));
+        if (variant.clientFactory().equals("jdk")) {
+            // the client sends api.gateway.host-header, which the JDK client drops otherwise
+            command.add("-Djdk.httpclient.allowRestrictedHeaders=host");
+        }
+        command.addAll(List.of(
+                "-cp", System.getProperty("java.class.path"),
+                LinkShortenerUiApplication.class.getName(),
+                "--server.port=" + port,
+                "--spring.threads.virtual.enabled=" + variant.virtualThreads(),
+                "--api.gateway.client.factory=" + variant.clientFactory(),
+                "--dashboard.early-flush.enabled=" + variant.earlyFlush(),
+                "--api.gateway.url=" + gatewayUri,
+                "--api.gateway.host-header=" + gatewayUri.getAuthority(),
+                "--spring.profiles.active=local",
+                "--spring.config.import=",
+                "--spring.cloud.config.enabled=false",
+                "--spring.boot.admin.client.enabled=false",
+                "--management.endpoints.web.exposure.include=health,metrics"));
+
+        Files.createDirectories(logFile.getParent());
+        this.process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile.toFile())
+                .start();
+        awaitStartup(logFile.toFile());
+        rssSampler.scheduleAtFixedRate(this::sampleRss, 0, 250, TimeUnit.MILLISECONDS);
+    }
+
+    URI uri() {
+        return uri;
+    }
+
+    GcPauses gcPauses() throws IOException, InterruptedException {
+        var metric = metric("jvm.gc.pause");
+        if (metric == null) {
+            return new GcPauses(0, 0, 0);
+        }
+        long count = 0;
+        double totalSeconds = 0;
+        double maxSeconds = 0;
+        for (var measurement : metric.path("measurements")) {
+            var value = measurement.path("value").asDouble();
+            switch (measurement.path("statistic").asText()) {
+                case "COUNT" -> count = (long) value;
+                case "TOTAL_TIME" -> totalSeconds = value;
+                case "MAX" -> maxSeconds = value;
+                default -> {
+                }
+            }
+        }
+        return new GcPauses(count, totalSeconds * 1000, maxSeconds * 1000);
+    }
+
+    /**
+     * Resident set size of the app process in bytes, -1 where /proc is not available.
+     */
+    long rssBytes() {
+        try {
+            for (var line : Files.readAllLines(Path.of("/proc", String.valueOf(process.pid()), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux, or the process is gone
+        }
+        return -1;
+    }
+
+    long peakRssBytes() {
+        return peakRssBytes.get();
+    }
+
+    void resetPeakRss() {
+        peakRssBytes.set(rssBytes());
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        rssSampler.shutdownNow();
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+        }
+    }
+
+    private void sampleRss() {
+        var rss = rssBytes();
+        peakRssBytes.accumulateAndGet(rss, Math::max);
+    }
+
+    private JsonNode metric(String name) throws IOException, InterruptedException {
+        var response = httpClient.send(HttpRequest.newBuilder(uri.resolve("/actuator/metrics/" + name)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        return response.statusCode() == 200 ? objectMapper.readTree(response.body()) : null;
+    }
+
+    private void awaitStartup(File logFile) throws IOException, InterruptedException {
+        var deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        var health = HttpRequest.newBuilder(uri.resolve("/actuator/health")).timeout(Duration.ofSeconds(2)).build();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("The app exited during startup, see " + logFile);
+            }
+            try {
+                // any answer will do, Tomcat only accepts connections once the context is up
+                httpClient.send(health, HttpResponse.BodyHandlers.discarding());
+                return;
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(250);
+        }
+        process.destroyForcibly();
+        throw new IllegalStateException("The app did not become healthy within " + STARTUP_TIMEOUT + ", see " + logFile);
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package pl.bpiatek.linkshortenerui.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.convert.DurationStyle;
+import pl.bpiatek.linkshortenerui.StubGateway;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * End-to-end load test: the UI in a forked JVM with the pod's flags, an in-process stub of the
+ * gateway and a driver starting login, dashboard, details and edit sessions at a fixed rate, each
+ * ending in an export of all links with -Dloadtest.export=true.
+ * Runs once with virtual threads and once with a platform thread pool unless told otherwise, and
+ * once per gateway client engine and dashboard early flush setting asked for:
+ * <pre>
+ *     ./mvnw -Ploadtest test-compile exec:exec@loadtest -Dloadtest.rate=40 -Dloadtest.mode=virtual
+ *     ./mvnw -Ploadtest test-compile exec:exec@loadtest -Dloadtest.mode=virtual -Dloadtest.client-factory=both
+ *     ./mvnw -Ploadtest test-compile exec:exec@loadtest -Dloadtest.mode=virtual -Dloadtest.early-flush=both
+ * </pre>
+ * The report is printed and written to target/loadtest, next to the app logs of each run. It ends
+ * with the p50/p99 of every run side by side.
+ */
+public final class LoadTest {
+
+    private static final double MILLIS = 1_000_000.0;
+
+    /**
+     * Read from -Dloadtest.* system properties, durations in the Spring Boot format (30s, 500ms).
+     *
+     * @param modes        thread modes to compare, virtual and/or platform
+     * @param factories    gateway client engines to compare (api.gateway.client.factory), apache and/or jdk
+     * @param earlyFlushes dashboard.early-flush.enabled settings to compare
+     * @param rate         sessions started per second
+     * @param maxInFlight  sessions running at once before new ones are dropped
+     * @param export       whether sessions end in an NDJSON export of the linksPerUser links
+     * @param appJvmArgs   flags of the app JVM, by default the pod's collector, heap and CPU limit
+     */
+    record Settings(List<Boolean> modes, List<String> factories, List<Boolean> earlyFlushes, double rate,
+                    Duration warmup, Duration duration, Duration thinkTime, int maxInFlight, boolean export,
+                    Duration gatewayMedianLatency, Duration gatewayP99Latency, double gatewayErrorRate,
+                    int linksPerUser, String appJvmArgs, Path outputDirectory) {
+
+        static Settings fromSystemProperties() {
+            var modes = switch (property("loadtest.mode", "both")) {
+                case "virtual" -> List.of(true);
+                case "platform" -> List.of(false);
+                case "both" -> List.of(true, false);
+                default -> throw new IllegalArgumentException("loadtest.mode must be virtual, platform or both");
+            };
+            var factories = switch (property("loadtest.client-factory", "apache")) {
+                case "apache" -> List.of("apache");
+                case "jdk" -> List.of("jdk");
+                case "both" -> List.of("apache", "jdk");
+                default -> throw new IllegalArgumentException("loadtest.client-factory must be apache, jdk or both");
+            };
+            var earlyFlushes = switch (property("loadtest.early-flush", "off")) {
+                case "on" -> List.of(true);
+                case "off" -> List.of(false);
+                case "both" -> List.of(false, true);
+                default -> throw new IllegalArgumentException("loadtest.early-flush must be on, off or both");
+            };
+            return new Settings(
+                    modes,
+                    factories,
+                    earlyFlushes,
+                    Double.parseDouble(property("loadtest.rate", "20")),
+                    duration("loadtest.warmup", "20s"),
+                    duration("loadtest.duration", "60s"),
+                    duration("loadtest.think-time", "0s"),
+                    Integer.parseInt(property("loadtest.max-in-flight", "2000")),
+                    Boolean.parseBoolean(property("loadtest.export", "false")),
+                    duration("loadtest.gateway.latency.median", "15ms"),
+                    duration("loadtest.gateway.latency.p99", "150ms"),
+                    Double.parseDouble(property("loadtest.gateway.error-rate", "0.005")),
+                    Integer.parseInt(property("loadtest.links-per-user", "60")),
+                    // heap of a 768Mi pod at MaxRAMPercentage=65, one CPU as the limit allows
+                    property("loadtest.app-jvm-args", "-XX:+UseSerialGC -Xmx500m -XX:ActiveProcessorCount=1"),
+                    Path.of(property("loadtest.output", "target/loadtest")));
+        }
+
+        private static String property(String name, String defaultValue) {
+            return System.getProperty(name, defaultValue);
+        }
+
+        private static Duration duration(String name, String defaultValue) {
+            return DurationStyle.detectAndParse(property(name, defaultValue));
+        }
+
+        List<Variant> variants() {
+            var variants = new ArrayList<Variant>();
+            for (var virtualThreads : modes) {
+                for (var factory : factories) {
+                    for (var earlyFlush : earlyFlushes) {
+                        variants.add(new Variant(virtualThreads, factory, earlyFlush));
+                    }
+                }
+            }
+            return variants;
+        }
+    }
+
+    /**
+     * One run of the app: its thread mode, the engine of its gateway client and whether the dashboard
+     * head is flushed early.
+     */
+    record Variant(boolean virtualThreads, String clientFactory, boolean earlyFlush) {
+
+        String label() {
+            return (virtualThreads ? "virtual" : "platform") + " threads, " + clientFactory + " client, "
+                    + "early flush " + (earlyFlush ? "on" : "off");
+        }
+
+        String fileSuffix() {
+            return (virtualThreads ? "virtual" : "platform") + "-" + clientFactory + (earlyFlush ? "-early-flush" : "");
+        }
+    }
+
+    private record Summary(Variant variant, Histogram dashboard, Histogram dashboardFirstByte, Histogram sessions,
+                           double exportLinksPerSecond) {
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        var settings = Settings.fromSystemProperties();
+        var report = new StringBuilder();
+        var behaviour = new StubGateway.Behaviour(settings.gatewayMedianLatency(), settings.gatewayP99Latency(),
+                settings.gatewayErrorRate());
+        try (var gateway = new StubGateway(behaviour, settings.linksPerUser())) {
+            report.append(String.format(Locale.ROOT, "%.1f sessions/s for %s after %s of warmup, app JVM: %s%n",
+                    settings.rate(), settings.duration(), settings.warmup(), settings.appJvmArgs()));
+            report.append(String.format(Locale.ROOT, "gateway: median %s, p99 %s, %.2f%% errors%n",
+                    settings.gatewayMedianLatency(), settings.gatewayP99Latency(), settings.gatewayErrorRate() * 100));
+            var summaries = new ArrayList<Summary>();
+            for (var variant : settings.variants()) {
+                report.append(run(settings, gateway, variant, summaries));
+            }
+            report.append(comparison(summaries));
+        }
+        System.out.print(report);
+        var file = settings.outputDirectory().resolve(
+                "report-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".txt");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, report);
+        System.out.println("Report written to " + file);
+    }
+
+    private static String run(Settings settings, StubGateway gateway, Variant variant, List<Summary> summaries)
+            throws Exception {
+        System.out.println("Starting the app with " + variant.label());
+        var logFile = settings.outputDirectory().resolve("app-" + variant.fileSuffix() + ".log");
+        try (var app = new AppProcess(settings, variant, gateway.uri(), logFile);
+             var driver = new ScenarioDriver(app.uri(), settings.linksPerUser(), settings.thinkTime(),
+                     settings.maxInFlight(), settings.export())) {
+            System.out.println("Warming up for " + settings.warmup());
+            driver.run(settings.rate(), settings.warmup(), false);
+
+            var gcStart = app.gcPauses();
+            var gatewayCalls = gateway.calls();
+            var gatewayFailures = gateway.failures();
+            app.resetPeakRss();
+            System.out.println("Measuring for " + settings.duration());
+            var start = System.nanoTime();
+            driver.run(settings.rate(), settings.duration(), true);
+            var elapsedSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+            var results = driver.results();
+            var gc = app.gcPauses().since(gcStart);
+            summaries.add(new Summary(variant, results.steps().get(ScenarioDriver.Step.DASHBOARD),
+                    results.firstBytes().get(ScenarioDriver.Step.DASHBOARD), results.sessions(),
+                    exportLinksPerSecond(results)));
+            return report(variant.label(), settings.export(), results, elapsedSeconds, gc,
+                    app.peakRssBytes(), app.rssBytes(), gateway.calls() - gatewayCalls, gateway.failures() - gatewayFailures);
+        }
+    }
+
+    private static String report(String label, boolean export, ScenarioDriver.Results results, double elapsedSeconds,
+                                 AppProcess.GcPauses gc, long peakRss, long endRss,
+                                 long gatewayCalls, long gatewayFailures) {
+        var report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%n== %s, %.1fs measured ==%n", label, elapsedSeconds));
+        report.append(String.format(Locale.ROOT, "%-32s %8s %7s %8s %9s %9s %9s %9s %9s %9s%n",
+                "step", "count", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "TTFB p50", "TTFB p99"));
+        for (var step : ScenarioDriver.Step.values()) {
+            if (step == ScenarioDriver.Step.EXPORT && !export) {
+                continue;
+            }
+            report.append(row(step.label, results.steps().get(step), results.errors().get(step), elapsedSeconds))
+                    .append(firstByte(results.firstBytes().get(step)));
+        }
+        report.append(row("session (from scheduled start)", results.sessions(),
+                results.started() - results.completed(), elapsedSeconds)).append(System.lineSeparator());
+        report.append(String.format(Locale.ROOT, "sessions: %d started, %d completed, %d dropped at the in-flight limit%n",
+                results.started(), results.completed(), results.dropped()));
+        if (export) {
+            report.append(String.format(Locale.ROOT, "export: %d links, %.0f links/s per export, %.0f links/s in all%n",
+                    results.exportedLinks(), exportLinksPerSecond(results), results.exportedLinks() / elapsedSeconds));
+        }
+        report.append(String.format(Locale.ROOT, "GC pauses: %d, %.1f ms total, %.1f ms max%n",
+                gc.count(), gc.totalMillis(), gc.maxMillis()));
+        report.append(String.format(Locale.ROOT, "RSS: %s peak, %s at the end%n", mebibytes(peakRss), mebibytes(endRss)));
+        report.append(String.format(Locale.ROOT, "gateway: %d calls, %d failed%n", gatewayCalls, gatewayFailures));
+        return report.toString();
+    }
+
+    /**
+     * The latencies that differ the most between runs, one line per run. TTFB is the time to the first
+     * byte of the dashboard, the one early flush should bring down.
+     */
+    private static String comparison(List<Summary> summaries) {
+        var comparison = new StringBuilder();
+        comparison.append(String.format(Locale.ROOT, "%n== comparison ==%n"));
+        comparison.append(String.format(Locale.ROOT, "%-56s %13s %13s %9s %9s %13s %13s %14s%n",
+                "run", "dashboard p50", "dashboard p99", "TTFB p50", "TTFB p99", "session p50", "session p99",
+                "export links/s"));
+        for (var summary : summaries) {
+            comparison.append(String.format(Locale.ROOT, "%-56s %13.1f %13.1f %9.1f %9.1f %13.1f %13.1f %14.0f%n",
+                    summary.variant().label(),
+                    summary.dashboard().getValueAtPercentile(50) / MILLIS,
+                    summary.dashboard().getValueAtPercentile(99) / MILLIS,
+                    summary.dashboardFirstByte().getValueAtPercentile(50) / MILLIS,
+                    summary.dashboardFirstByte().getValueAtPercentile(99) / MILLIS,
+                    summary.sessions().getValueAtPercentile(50) / MILLIS,
+                    summary.sessions().getValueAtPercentile(99) / MILLIS,
+                    summary.exportLinksPerSecond()));
+        }
+        return comparison.toString();
+    }
+
+    private static String row(String label, Histogram histogram, long errors, double elapsedSeconds) {
+        return String.format(Locale.ROOT, "%-32s %8d %7d %8.1f %9.1f %9.1f %9.1f %9.1f",
+                label,
+                histogram.getTotalCount(),
+                errors,
+                histogram.getTotalCount() / elapsedSeconds,
+                histogram.getValueAtPercentile(50) / MILLIS,
+                histogram.getValueAtPercentile(99) / MILLIS,
+                histogram.getValueAtPercentile(99.9) / MILLIS,
+                histogram.getMaxValue() / MILLIS);
+    }
+
+    /**
+     * How fast one export streams, links received over the time the complete exports took.
+     */
+    private static double exportLinksPerSecond(ScenarioDriver.Results results) {
+        return results.exportNanos() > 0 ? results.exportedLinks() * 1_000_000_000.0 / results.exportNanos() : 0;
+    }
+
+    /**
+     * Steps answered with a redirect have no body and no TTFB.
+     */
+    private static String firstByte(Histogram firstBytes) {
+        if (firstBytes.getTotalCount() == 0) {
+            return String.format(Locale.ROOT, " %9s %9s%n", "-", "-");
+        }
+        return String.format(Locale.ROOT, " %9.1f %9.1f%n",
+                firstBytes.getValueAtPercentile(50) / MILLIS,
+                firstBytes.getValueAtPercentile(99) / MILLIS);
+    }
+
+    private static String mebibytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.format(Locale.ROOT, "%.0f MiB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,336 @@
+package pl.bpiatek.linkshortenerui.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Starts browser sessions at a fixed rate (an open model: a slow app does not slow down arrivals)
+ * and records the latency of every step. A session logs in, opens the dashboard, the details of
+ * one link, its edit form and saves it, then exports all links if asked to, without think time
+ * unless configured. Besides the latency
+ * of each step, the time to the first byte of its body is recorded: with the dashboard head flushed
+ * early it arrives well before the response is complete.
+ * <p>
+ * Session latency is measured from the time the session was due to start, so a backlog in the
+ * driver shows up in the numbers instead of hiding (coordinated omission).
+ */
+final class ScenarioDriver implements AutoCloseable {
+
+    enum Step {
+        LOGIN_PAGE("GET /login"),
+        LOGIN("POST /login"),
+        DASHBOARD("GET /dashboard"),
+        DETAILS("GET /dashboard/links/{id}"),
+        EDIT_PAGE("GET /dashboard/links/{id}/edit"),
+        EDIT("POST /dashboard/links/{id}/edit"),
+        EXPORT("GET /dashboard/links/export");
+
+        final String label;
+
+        Step(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * @param exportedLinks links received by complete exports
+     * @param exportNanos   time those exports took
+     */
+    record Results(Map<Step, Histogram> steps, Map<Step, Histogram> firstBytes, Map<Step, Long> errors,
+                   Histogram sessions, long started, long completed, long dropped,
+                   long exportedLinks, long exportNanos) {
+    }
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final URI app;
+    private final int linksPerUser;
+    private final Duration thinkTime;
+    private final int maxInFlight;
+    private final boolean export;
+    private final ExecutorService clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpClient httpClient;
+    private final Map<Step, Recorder> latencies = new EnumMap<>(Step.class);
+    private final Map<Step, Recorder> firstBytes = new EnumMap<>(Step.class);
+    private final Map<Step, LongAdder> errors = new EnumMap<>(Step.class);
+    private final Recorder sessionLatencies = new Recorder(3);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder exportedLinks = new LongAdder();
+    private final LongAdder exportNanos = new LongAdder();
+
+    ScenarioDriver(URI app, int linksPerUser, Duration thinkTime, int maxInFlight, boolean export) {
+        this.app = app;
+        this.linksPerUser = linksPerUser;
+        this.thinkTime = thinkTime;
+        this.maxInFlight = maxInFlight;
+        this.export = export;
+        this.httpClient = HttpClient.newBuilder()
+                .executor(clientExecutor)
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        for (var step : Step.values()) {
+            latencies.put(step, new Recorder(3));
+            firstBytes.put(step, new Recorder(3));
+            errors.put(step, new LongAdder());
+        }
+    }
+
+    /**
+     * Starts sessions at the given rate for the given time and waits for the last ones to finish.
+     * Only sessions of a recorded run count towards the results.
+     */
+    void run(double sessionsPerSecond, Duration duration, boolean record) {
+        var interval = (long) (1_000_000_000 / sessionsPerSecond);
+        var start = System.nanoTime();
+        var end = start + duration.toNanos();
+        try (var sessions = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var due = start; due < end; due += interval) {
+                var wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (inFlight.get() >= maxInFlight) {
+                    if (record) {
+                        dropped.increment();
+                    }
+                    continue;
+                }
+                inFlight.incrementAndGet();
+                var sessionDue = due;
+                sessions.execute(() -> {
+                    try {
+                        session(sessionDue, record);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    Results results() {
+        var steps = new EnumMap<Step, Histogram>(Step.class);
+        var stepFirstBytes = new EnumMap<Step, Histogram>(Step.class);
+        var stepErrors = new EnumMap<Step, Long>(Step.class);
+        for (var step : Step.values()) {
+            steps.put(step, latencies.get(step).getIntervalHistogram());
+            stepFirstBytes.put(step, firstBytes.get(step).getIntervalHistogram());
+            stepErrors.put(step, errors.get(step).sum());
+        }
+        return new Results(steps, stepFirstBytes, stepErrors, sessionLatencies.getIntervalHistogram(),
+                started.sum(), completed.sum(), dropped.sum(), exportedLinks.sum(), exportNanos.sum());
+    }
+
+    @Override
+    public void close() {
+        httpClient.close();
+        clientExecutor.close();
+    }
+
+    private void session(long due, boolean record) {
+        if (record) {
+            started.increment();
+        }
+        var cookies = new HashMap<String, String>();
+        var id = 1 + ThreadLocalRandom.current().nextInt(linksPerUser);
+        var email = "user" + ThreadLocalRandom.current().nextInt(10_000) + "@example.com";
+
+        var ok = send(Step.LOGIN_PAGE, get("/login"), cookies, record)
+                && send(Step.LOGIN, post("/login", form("email", email, "password", "correct horse battery staple")), cookies, record)
+                && send(Step.DASHBOARD, get("/dashboard"), cookies, record)
+                && send(Step.DETAILS, get("/dashboard/links/" + id), cookies, record)
+                && send(Step.EDIT_PAGE, get("/dashboard/links/" + id + "/edit"), cookies, record)
+                && send(Step.EDIT, post("/dashboard/links/" + id + "/edit", form(
+                        "longUrl", "https://www.example.com/articles/" + id + "/edited",
+                        "title", "Edited link " + id,
+                        "isActive", "true")), cookies, record)
+                && (!export || send(Step.EXPORT, get("/dashboard/links/export?format=ndjson"), cookies, record));
+
+        if (record) {
+            sessionLatencies.recordValue(System.nanoTime() - due);
+            if (ok) {
+                completed.increment();
+            }
+        }
+    }
+
+    private boolean send(Step step, HttpRequest.Builder request, Map<String, String> cookies, boolean record) {
+        if (!cookies.isEmpty()) {
+            var header = new StringBuilder();
+            cookies.forEach((name, value) -> header.append(name).append('=').append(value).append("; "));
+            request.header("Cookie", header.substring(0, header.length() - 2));
+        }
+        var start = System.nanoTime();
+        var firstByteAt = -1L;
+        var lines = 0L;
+        boolean ok;
+        try {
+            var response = httpClient.send(request.timeout(REQUEST_TIMEOUT).build(),
+                    info -> new Body(step == Step.EXPORT));
+            firstByteAt = response.body().firstByteAt();
+            lines = response.body().lines();
+            // an export cut short still ends in a 200, every user has all the links
+            ok = response.statusCode() < 400 && (step != Step.EXPORT || lines == linksPerUser);
+            response.headers().allValues("Set-Cookie").forEach(setCookie -> storeCookie(setCookie, cookies));
+        } catch (IOException e) {
+            ok = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (record) {
+            var latency = System.nanoTime() - start;
+            latencies.get(step).recordValue(latency);
+            if (firstByteAt >= 0) {
+                firstBytes.get(step).recordValue(firstByteAt - start);
+            }
+            if (step == Step.EXPORT && ok) {
+                exportedLinks.add(lines);
+                exportNanos.add(latency);
+            }
+            if (!ok) {
+                errors.get(step).increment();
+            }
+        }
+        if (ok && !thinkTime.isZero()) {
+            LockSupport.parkNanos(thinkTime.toNanos());
+        }
+        return ok;
+    }
+
+    /**
+     * @param firstByteAt System.nanoTime() the first byte of the body arrived at, -1 for an empty
+     *                    body (redirects)
+     * @param lines       newlines in the body, when counted
+     */
+    private record Received(long firstByteAt, long lines) {
+    }
+
+    /**
+     * Discards the body, noting when it started to arrive and optionally counting its lines.
+     */
+    private static final class Body implements HttpResponse.BodySubscriber<Received> {
+
+        private final CompletableFuture<Received> received = new CompletableFuture<>();
+        private final boolean countLines;
+        // signals come one at a time, completing the future publishes the fields
+        private long firstByteAt = -1;
+        private long lines;
+
+        Body(boolean countLines) {
+            this.countLines = countLines;
+        }
+
+        @Override
+        public CompletionStage<Received> getBody() {
+            return received;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            if (firstByteAt < 0 && buffers.stream().anyMatch(ByteBuffer::hasRemaining)) {
+                firstByteAt = System.nanoTime();
+            }
+            if (countLines) {
+                for (var buffer : buffers) {
+                    for (var i = buffer.position(); i < buffer.limit(); i++) {
+                        if (buffer.get(i) == '\n') {
+                            lines++;
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable failure) {
+            received.completeExceptionally(failure);
+        }
+
+        @Override
+        public void onComplete() {
+            received.complete(new Received(firstByteAt, lines));
+        }
+    }
+
+    /**
+     * The auth cookies are Secure, which the JDK cookie handler never sends over plain HTTP.
+     */
+    private static void storeCookie(String setCookie, Map<String, String> cookies) {
+        var attributes = setCookie.split(";");
+        var separator = attributes[0].indexOf('=');
+        if (separator <= 0) {
+            return;
+        }
+        var name = attributes[0].substring(0, separator).strip();
+        var value = attributes[0].substring(separator + 1).strip();
+        var expired = value.isEmpty();
+        for (var i = 1; i < attributes.length; i++) {
+            if (attributes[i].strip().equalsIgnoreCase("Max-Age=0")) {
+                expired = true;
+            }
+        }
+        if (expired) {
+            cookies.remove(name);
+        } else {
+            cookies.put(name, value);
+        }
+    }
+
+    private HttpRequest.Builder get(String path) {
+        return HttpRequest.newBuilder(app.resolve(path)).GET();
+    }
+
+    private HttpRequest.Builder post(String path, String form) {
+        return HttpRequest.newBuilder(app.resolve(path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form));
+    }
+
+    private static String form(String... namesAndValues) {
+        var form = new StringBuilder();
+        for (var i = 0; i < namesAndValues.length; i += 2) {
+            if (!form.isEmpty()) {
+                form.append('&');
+            }
+            form.append(URLEncoder.encode(namesAndValues[i], UTF_8))
+                    .append('=')
+                    .append(URLEncoder.encode(namesAndValues[i + 1], UTF_8));
+        }
+        return form.toString();
+    }
+}
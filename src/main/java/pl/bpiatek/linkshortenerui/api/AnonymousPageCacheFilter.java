@@ -0,0 +1,225 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the pages that look the same for every anonymous visitor from memory.
+ * <p>
+ * The first anonymous request of a page renders it as usual, the HTML is kept as identity and
+ * gzip bytes with a weak ETag. Later anonymous requests are answered without reaching Spring MVC,
+ * or with a 304 when the browser already has the page. Requests with auth cookies, a query string
+ * or a session (flash attributes) always render, as do all pages while templates are not cached
+ * (spring.thymeleaf.cache=false during development), so template changes show up immediately.
+ */
+@Component
+class AnonymousPageCacheFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(AnonymousPageCacheFilter.class);
+
+    private static final Set<String> PAGES = Set.of("/", "/login", "/register", "/forgot-password", "/inactive");
+
+    private final boolean enabled;
+    private final Cache<String, CachedPage> pages;
+    private final Counter hits;
+    private final Counter notModified;
+    private final Counter misses;
+    private final Counter uncacheable;
+
+    AnonymousPageCacheFilter(MeterRegistry meterRegistry,
+                             @Value("${ui.page-cache.enabled:true}") boolean enabled,
+                             @Value("${spring.thymeleaf.cache:true}") boolean templatesCached,
+                             @Value("${ui.page-cache.ttl:10m}") Duration ttl) {
+        this.enabled = enabled && templatesCached;
+        this.pages = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(PAGES.size())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, pages, "anonymous.pages");
+        this.hits = resultCounter(meterRegistry, "hit");
+        this.notModified = resultCounter(meterRegistry, "not_modified");
+        this.misses = resultCounter(meterRegistry, "miss");
+        this.uncacheable = resultCounter(meterRegistry, "uncacheable");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled
+                || !"GET".equals(request.getMethod())
+                || request.getQueryString() != null
+                || !PAGES.contains(path(request))
+                || hasAuthCookie(request)
+                || request.getSession(false) != null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        var path = path(request);
+        var page = pages.getIfPresent(path);
+        if (page != null) {
+            var counter = write(page, request, response) ? hits : notModified;
+            counter.increment();
+            return;
+        }
+
+        var rendered = new ContentCachingResponseWrapper(response);
+        filterChain.doFilter(request, rendered);
+
+        if (!isCacheable(rendered)) {
+            uncacheable.increment();
+            rendered.copyBodyToResponse();
+            return;
+        }
+
+        misses.increment();
+        page = CachedPage.of(rendered.getContentType(), rendered.getContentAsByteArray());
+        pages.put(path, page);
+        log.debug("Cached anonymous page {} ({} bytes, {} gzipped)", path, page.identity().length, page.gzip().length);
+        write(page, request, response);
+    }
+
+    /**
+     * Writes the page or a 304, returns whether the body was sent.
+     */
+    private boolean write(CachedPage page, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, page.etag());
+        // the same URL shows the user's email once logged in, browsers have to revalidate every time
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        response.addHeader(HttpHeaders.VARY, "Accept-Encoding");
+        response.addHeader(HttpHeaders.VARY, "Cookie");
+
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), page.etag())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+        }
+
+        byte[] body;
+        if (acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            body = page.gzip();
+        } else {
+            body = page.identity();
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(page.contentType());
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return true;
+    }
+
+    private static boolean isCacheable(ContentCachingResponseWrapper rendered) {
+        var contentType = rendered.getContentType();
+        return rendered.getStatus() == HttpServletResponse.SC_OK
+                && contentType != null
+                && contentType.startsWith("text/html")
+                && rendered.getHeaders(HttpHeaders.SET_COOKIE).isEmpty();
+    }
+
+    private static boolean hasAuthCookie(HttpServletRequest request) {
+        var cookies = request.getCookies();
+        if (cookies == null) {
+            return false;
+        }
+        for (var cookie : cookies) {
+            if (AuthContextFilter.ACCESS_TOKEN_COOKIE.equals(cookie.getName())
+                    || AuthContextFilter.REFRESH_TOKEN_COOKIE.equals(cookie.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Weak comparison as in RFC 9110, the identity and gzip variants share one weak ETag.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        var opaqueTag = etag.substring(2);
+        for (var candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.strip();
+            if (candidate.equals("*") || candidate.equals(etag) || candidate.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (var coding : acceptEncoding.split(",")) {
+            var parts = coding.strip().split(";");
+            if (parts[0].strip().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].replace(" ", "").equals("q=0");
+            }
+        }
+        return false;
+    }
+
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    private Counter resultCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("ui.page-cache.requests")
+                .description("Anonymous page requests answered by the page cache")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record CachedPage(String contentType, byte[] identity, byte[] gzip, String etag) {
+
+        static CachedPage of(String contentType, byte[] identity) {
+            return new CachedPage(contentType, identity, gzip(identity), etag(identity));
+        }
+
+        private static byte[] gzip(byte[] identity) {
+            var compressed = new ByteArrayOutputStream(identity.length / 4);
+            try (var gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(identity);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return compressed.toByteArray();
+        }
+
+        private static String etag(byte[] identity) {
+            try {
+                var hash = MessageDigest.getInstance("SHA-256").digest(identity);
+                return "W/\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash).substring(0, 22) + "\"";
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Async requests time out after the server's default, handlers that stream for longer set their own
+ * timeout with {@link AsyncRequestTimeout}.
+ */
+@Configuration
+class AsyncRequestConfig implements WebMvcConfigurer {
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(new AsyncRequestTimeout());
+    }
+}
@@ -0,0 +1,33 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * A timeout for one async request instead of the server's default, for handlers that return a
+ * {@link org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody}, which has no
+ * timeout of its own. The handler calls {@link #set(HttpServletRequest, Duration)} before returning,
+ * the timeout is applied right before the async processing starts.
+ */
+class AsyncRequestTimeout implements CallableProcessingInterceptor {
+
+    private static final String ATTRIBUTE = "pl.bpiatek.linkshortenerui.AsyncRequestTimeout";
+
+    static void set(HttpServletRequest request, Duration timeout) {
+        request.setAttribute(ATTRIBUTE, timeout);
+    }
+
+    @Override
+    public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+        if (request instanceof AsyncWebRequest asyncRequest
+                && request.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) instanceof Duration timeout) {
+            asyncRequest.setTimeout(timeout.toMillis());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Authentication state of the current request, resolved once from the cookies by {@link AuthContextFilter}
+ * and stored as a request attribute. Instances are immutable, a token refresh stores a new one.
+ * <p>
+ * {@code authenticated} is set once the gateway is known to have accepted the access token, see
+ * {@link AuthenticatedTokens}. Before that the claims are only what the cookie says.
+ */
+public record AuthContext(
+        String accessToken,
+        String refreshToken,
+        JwtClaims claims,
+        boolean authenticated
+) {
+    public static final String ATTRIBUTE = "pl.bpiatek.linkshortenerui.AuthContext";
+
+    static final AuthContext ANONYMOUS = new AuthContext(null, null, null, false);
+
+    public boolean hasAccessToken() {
+        return accessToken != null && !accessToken.isBlank();
+    }
+
+    public boolean hasRefreshToken() {
+        return refreshToken != null && !refreshToken.isBlank();
+    }
+
+    public String email() {
+        return claims != null ? claims.email() : null;
+    }
+
+    public String userId() {
+        return claims != null ? claims.principal() : null;
+    }
+
+    /**
+     * The user id once the gateway has accepted the access token, null before. Use it for anything
+     * kept across requests of a user, a forged cookie must not be able to read another user's data.
+     */
+    public String authenticatedUserId() {
+        return authenticated ? userId() : null;
+    }
+
+    /**
+     * For tokens that came from the gateway itself.
+     */
+    AuthContext withTokens(String accessToken, String refreshToken, JwtClaims claims) {
+        return new AuthContext(accessToken, refreshToken, claims, true);
+    }
+
+    AuthContext asAuthenticated() {
+        return authenticated ? this : new AuthContext(accessToken, refreshToken, claims, true);
+    }
+
+    /**
+     * Context of the request bound to the current thread, anonymous outside of a request.
+     */
+    static AuthContext current() {
+        var attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return ANONYMOUS;
+        }
+        var context = attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        return context instanceof AuthContext authContext ? authContext : ANONYMOUS;
+    }
+
+    static void update(AuthContext context) {
+        var attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            attributes.setAttribute(ATTRIBUTE, context, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Reads the jwt/refresh_jwt cookies and the access token claims once per request
+ * and exposes them as {@link AuthContext} for controllers and the singleton auth services.
+ */
+@Component
+class AuthContextFilter extends OncePerRequestFilter {
+
+    static final String ACCESS_TOKEN_COOKIE = "jwt";
+    static final String REFRESH_TOKEN_COOKIE = "refresh_jwt";
+
+    private final TokenExtractor tokenExtractor;
+    private final AuthenticatedTokens authenticatedTokens;
+
+    AuthContextFilter(TokenExtractor tokenExtractor, AuthenticatedTokens authenticatedTokens) {
+        this.tokenExtractor = tokenExtractor;
+        this.authenticatedTokens = authenticatedTokens;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        request.setAttribute(AuthContext.ATTRIBUTE, resolve(request));
+        filterChain.doFilter(request, response);
+    }
+
+    private AuthContext resolve(HttpServletRequest request) {
+        var cookies = request.getCookies();
+        if (cookies == null) {
+            return AuthContext.ANONYMOUS;
+        }
+
+        String accessToken = null;
+        String refreshToken = null;
+        for (var cookie : cookies) {
+            if (accessToken == null && ACCESS_TOKEN_COOKIE.equals(cookie.getName())) {
+                accessToken = cookie.getValue();
+            } else if (refreshToken == null && REFRESH_TOKEN_COOKIE.equals(cookie.getName())) {
+                refreshToken = cookie.getValue();
+            }
+        }
+
+        if (accessToken == null && refreshToken == null) {
+            return AuthContext.ANONYMOUS;
+        }
+        return new AuthContext(accessToken, refreshToken, tokenExtractor.extractClaims(accessToken),
+                authenticatedTokens.contains(accessToken));
+    }
+}
@@ -32,10 +32,12 @@ class AuthController {
 
     private final RestClient apiGatewayClient;
     private final BackendErrorMapper errorMapper;
+    private final AuthenticatedTokens authenticatedTokens;
 
-    AuthController(RestClient apiGatewayClient, BackendErrorMapper errorMapper) {
+    AuthController(RestClient apiGatewayClient, BackendErrorMapper errorMapper, AuthenticatedTokens authenticatedTokens) {
         this.apiGatewayClient = apiGatewayClient;
         this.errorMapper = errorMapper;
+        this.authenticatedTokens = authenticatedTokens;
     }
 
     @GetMapping("/register")
@@ -108,6 +110,7 @@ class AuthController {
                     .retrieve()
                     .body(LoginResponse.class);
 
+            authenticatedTokens.add(tokenResponse.accessToken());
             setJwtCookie(response, "jwt", tokenResponse.accessToken(), 900);
             setJwtCookie(response, "refresh_jwt", tokenResponse.refreshToken(), 604800);
 
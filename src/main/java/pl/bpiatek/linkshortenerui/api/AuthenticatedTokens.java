@@ -0,0 +1,57 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+
+/**
+ * Access tokens the gateway is known to have accepted: issued by login or refresh, or presented on a
+ * gateway call that succeeded. {@link TokenExtractor} reads the claims without checking the signature,
+ * so until then the user id of a jwt cookie is only what the cookie says. Anything shared between
+ * requests of a user, like the dashboard page cache, is keyed by
+ * {@link AuthContext#authenticatedUserId()}, which is backed by this registry.
+ * <p>
+ * Only hashes of the tokens are kept, for as long as an access token lives.
+ */
+@Component
+public class AuthenticatedTokens {
+
+    private static final int MAX_TOKENS = 10_000;
+    // Access tokens live for 15 minutes (cookie max-age 900)
+    private static final Duration TOKEN_TTL = Duration.ofMinutes(15);
+
+    private final Cache<String, Boolean> tokens;
+
+    AuthenticatedTokens() {
+        this.tokens = Caffeine.newBuilder()
+                .maximumSize(MAX_TOKENS)
+                .expireAfterWrite(TOKEN_TTL)
+                .build();
+    }
+
+    public boolean contains(String accessToken) {
+        return accessToken != null && !accessToken.isBlank() && tokens.getIfPresent(hash(accessToken)) != null;
+    }
+
+    void add(String accessToken) {
+        if (accessToken != null && !accessToken.isBlank()) {
+            tokens.put(hash(accessToken), Boolean.TRUE);
+        }
+    }
+
+    private static String hash(String accessToken) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256")
+                    .digest(accessToken.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,67 +1,155 @@
 package pl.bpiatek.linkshortenerui.api;
 
-import jakarta.servlet.http.Cookie;
-import jakarta.servlet.http.HttpServletRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.context.annotation.RequestScope;
 
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 @Service
-@RequestScope
 class BackendApiService {
 
     private static final Logger log = LoggerFactory.getLogger(BackendApiService.class);
 
     private final TokenRefresher tokenRefresher;
-    private final HttpServletRequest request;
+    private final AuthenticatedTokens authenticatedTokens;
+    private final Duration refreshSkew;
+    private final Counter proactiveRefreshes;
+    private final Counter reactiveRefreshes;
 
     public BackendApiService(TokenRefresher tokenRefresher,
-                             HttpServletRequest request) {
+                             AuthenticatedTokens authenticatedTokens,
+                             MeterRegistry meterRegistry,
+                             @Value("${auth.token.refresh-skew:30s}") Duration refreshSkew) {
         this.tokenRefresher = tokenRefresher;
-        this.request = request;
+        this.authenticatedTokens = authenticatedTokens;
+        this.refreshSkew = refreshSkew;
+        this.proactiveRefreshes = refreshCounter(meterRegistry, "proactive");
+        this.reactiveRefreshes = refreshCounter(meterRegistry, "reactive");
     }
 
+    /**
+     * Calls an endpoint that requires authentication, refreshing the token on a 401. A call that
+     * succeeds marks its token as accepted by the gateway, see {@link AuthenticatedTokens}.
+     * A refresh the gateway is unavailable for rethrows the client's exception, callers fall back
+     * as for any other outage.
+     */
     public <T> T execute(Function<String, T> apiCall) {
-        var accessToken = getCookie("jwt");
+        var accessToken = accessToken();
+
+        try {
+            return accepted(timed(apiCall, accessToken), accessToken);
+        } catch (HttpClientErrorException.Unauthorized ex) {
+            log.debug("execute(): received 401, attempting refresh");
+            reactiveRefreshes.increment();
+            var refreshedToken = tokenRefresher.refreshAccessToken();
+            log.debug("execute(): retrying API call with refreshed token");
+
+            return accepted(timed(apiCall, refreshedToken), refreshedToken);
+        }
+    }
+
+    /**
+     * Starts the call on the given executor. The token is resolved, and refreshed if needed, on the
+     * calling request thread so the new cookies can still be set. A 401 from the call itself is not
+     * retried: the response may be committed by then and rotated cookies would never reach the browser.
+     */
+    public <T> CompletableFuture<T> executeAsync(Function<String, T> apiCall, Executor executor) {
+        try {
+            var accessToken = accessToken();
+            var timings = RequestTimings.current();
+            return CompletableFuture.supplyAsync(() -> accepted(timed(apiCall, accessToken, timings), accessToken), executor);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * The access token for the current request, refreshed first when it is missing or about to expire.
+     * For work that outlives the request thread; the caller is on its own with a 401 from the gateway.
+     *
+     * @throws HttpClientErrorException with status 401 when there is no token and it cannot be refreshed
+     */
+    String accessToken() {
+        return accessToken(refreshSkew);
+    }
+
+    /**
+     * Same as {@link #accessToken()}, but refreshed when it expires within the given time, for work
+     * that has to get by with one token for that long.
+     */
+    String accessToken(Duration minValidity) {
+        var auth = AuthContext.current();
+        var accessToken = auth.accessToken();
 
         log.debug("execute(): jwt present={}, thread={}",
                 accessToken != null,
                 Thread.currentThread().getName());
 
-        if (accessToken == null || accessToken.isBlank()) {
+        if (!auth.hasAccessToken()) {
             log.debug("execute(): Access token cookie missing. Attempting refresh...");
             try {
                 accessToken = tokenRefresher.refreshAccessToken();
-            } catch (Exception e) {
+            } catch (HttpClientErrorException e) {
                 log.debug("execute(): Refresh failed. User must login.");
                 throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED);
             }
+        } else if (auth.claims() != null && auth.claims().expiresWithin(minValidity)) {
+            // Refreshing up front saves the round trip the gateway would spend rejecting the token
+            log.debug("execute(): Access token expires within {}. Refreshing before the call...", minValidity);
+            proactiveRefreshes.increment();
+            try {
+                accessToken = tokenRefresher.refreshAccessToken();
+            } catch (HttpClientErrorException e) {
+                log.debug("execute(): Proactive refresh failed. User must login.");
+                throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED);
+            }
+        }
+        return accessToken;
+    }
+
+    /**
+     * The gateway has checked the signature of the token, its claims can be trusted from now on.
+     * On another thread only the registry is updated, there is no request context to update.
+     */
+    private <T> T accepted(T result, String accessToken) {
+        var auth = AuthContext.current();
+        if (auth.authenticated() && Objects.equals(auth.accessToken(), accessToken)) {
+            return result;
         }
+        authenticatedTokens.add(accessToken);
+        if (Objects.equals(auth.accessToken(), accessToken)) {
+            AuthContext.update(auth.asAuthenticated());
+        }
+        return result;
+    }
 
+    private static <T> T timed(Function<String, T> apiCall, String accessToken) {
+        return timed(apiCall, accessToken, RequestTimings.current());
+    }
+
+    private static <T> T timed(Function<String, T> apiCall, String accessToken, RequestTimings timings) {
+        var start = System.nanoTime();
         try {
             return apiCall.apply(accessToken);
-        } catch (HttpClientErrorException.Unauthorized ex) {
-            log.debug("execute(): received 401, attempting refresh");
-            var refreshedToken = tokenRefresher.refreshAccessToken();
-            log.debug("execute(): retrying API call with refreshed token");
-
-            return apiCall.apply(refreshedToken);
+        } finally {
+            timings.gateway(start);
         }
     }
 
-    private String getCookie(String name) {
-        if (request.getCookies() == null) return null;
-
-        return Arrays.stream(request.getCookies())
-                .filter(c -> name.equals(c.getName()))
-                .map(Cookie::getValue)
-                .findFirst()
-                .orElse(null);
+    private static Counter refreshCounter(MeterRegistry meterRegistry, String trigger) {
+        return Counter.builder("ui.auth.token.refresh")
+                .description("Access token refreshes initiated by BackendApiService")
+                .tag("trigger", trigger)
+                .register(meterRegistry);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+@Controller
+class BulkImportController {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkImportController.class);
+
+    private final BackendApiService backendApi;
+    private final BulkLinkImporter importer;
+    private final Duration tokenValidity;
+
+    BulkImportController(BackendApiService backendApi,
+                         BulkLinkImporter importer,
+                         @Value("${dashboard.import.token-validity:5m}") Duration tokenValidity) {
+        this.backendApi = backendApi;
+        this.importer = importer;
+        this.tokenValidity = tokenValidity;
+    }
+
+    @GetMapping("/dashboard/links/import")
+    String importPage(Model model) {
+        model.addAttribute("maxRows", importer.maxRows());
+        return "link-import";
+    }
+
+    @PostMapping("/dashboard/links/import")
+    String startImport(@RequestParam("file") MultipartFile file, RedirectAttributes redirectAttributes) {
+        // resolved up front: an expired session goes to the login page before the file is read, and a
+        // token about to expire is refreshed while the cookies can still be set
+        var accessToken = AuthContext.current().hasRefreshToken()
+                ? backendApi.accessToken(tokenValidity)
+                : backendApi.accessToken();
+
+        if (file.isEmpty()) {
+            redirectAttributes.addFlashAttribute("error", "Please choose a CSV file.");
+            return "redirect:/dashboard/links/import";
+        }
+
+        BulkLinkImporter.ParsedImport parsed;
+        try (var csv = file.getInputStream()) {
+            parsed = importer.parse(csv);
+        } catch (IllegalArgumentException e) {
+            redirectAttributes.addFlashAttribute("error", e.getMessage());
+            return "redirect:/dashboard/links/import";
+        } catch (IOException e) {
+            log.warn("Failed to read uploaded import file: {}", e.getMessage());
+            redirectAttributes.addFlashAttribute("error", "Could not read the uploaded file.");
+            return "redirect:/dashboard/links/import";
+        }
+
+        if (parsed.total() == 0) {
+            redirectAttributes.addFlashAttribute("error", "The file has no rows.");
+            return "redirect:/dashboard/links/import";
+        }
+
+        var auth = AuthContext.current();
+        var job = importer.start(auth.userId(), accessToken, auth.refreshToken(), parsed);
+        log.info("Started bulk import {} with {} valid and {} invalid rows",
+                job.getId(), parsed.rows().size(), parsed.invalid().size());
+
+        return "redirect:/dashboard/links/import/" + job.getId();
+    }
+
+    @GetMapping("/dashboard/links/import/{jobId}")
+    String importProgressPage(@PathVariable String jobId, Model model) {
+        model.addAttribute("maxRows", importer.maxRows());
+        addProgress(jobId, 0, model);
+        // the whole page lists all results already, nothing to append out of band
+        model.addAttribute("poll", false);
+        return "link-import";
+    }
+
+    /**
+     * Polled by htmx. Returns the rows finished since {@code from}, the fragment polls again until
+     * the job is done.
+     */
+    @GetMapping("/dashboard/links/import/{jobId}/progress")
+    String importProgress(@PathVariable String jobId,
+                          @RequestParam(defaultValue = "0") int from,
+                          Model model) {
+        addProgress(jobId, from, model);
+        model.addAttribute("poll", true);
+        return "link-import :: progress";
+    }
+
+    private void addProgress(String jobId, int from, Model model) {
+        var job = importer.find(jobId, AuthContext.current().userId());
+        // read before the results, a job finishing in between is picked up by one more poll
+        var done = job == null || job.isDone();
+        var results = job != null ? job.resultsFrom(from) : List.<BulkImportJob.RowResult>of();
+
+        model.addAttribute("jobId", jobId);
+        model.addAttribute("job", job);
+        model.addAttribute("done", done);
+        model.addAttribute("results", results);
+        model.addAttribute("next", from + results.size());
+    }
+}
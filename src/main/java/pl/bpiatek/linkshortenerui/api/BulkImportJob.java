@@ -0,0 +1,105 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of one bulk link import. Rows are recorded by the worker threads in completion order,
+ * the progress view polls them with a cursor.
+ */
+class BulkImportJob {
+
+    enum RowStatus { CREATED, FAILED, INVALID }
+
+    record RowResult(int line, String longUrl, String shortUrl, RowStatus status, String message) {
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String userId;
+    private final int total;
+    private final List<RowResult> results = new ArrayList<>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger invalid = new AtomicInteger();
+
+    private volatile boolean sessionExpired;
+    private volatile boolean done;
+
+    BulkImportJob(String userId, int total) {
+        this.userId = userId;
+        this.total = total;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    String userId() {
+        return userId;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getCreated() {
+        return created.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getInvalid() {
+        return invalid.get();
+    }
+
+    public int getProcessed() {
+        return getCreated() + getFailed() + getInvalid();
+    }
+
+    public int getPercent() {
+        return total == 0 ? 100 : getProcessed() * 100 / total;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    boolean isSessionExpired() {
+        return sessionExpired;
+    }
+
+    void expireSession() {
+        sessionExpired = true;
+    }
+
+    void finish() {
+        done = true;
+    }
+
+    void record(RowResult result) {
+        switch (result.status()) {
+            case CREATED -> created.incrementAndGet();
+            case FAILED -> failed.incrementAndGet();
+            case INVALID -> invalid.incrementAndGet();
+        }
+        synchronized (results) {
+            results.add(result);
+        }
+    }
+
+    /**
+     * Results recorded since the given cursor.
+     */
+    List<RowResult> resultsFrom(int from) {
+        synchronized (results) {
+            if (from >= results.size()) {
+                return List.of();
+            }
+            return List.copyOf(results.subList(Math.max(from, 0), results.size()));
+        }
+    }
+}
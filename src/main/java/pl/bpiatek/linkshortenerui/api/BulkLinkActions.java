@@ -0,0 +1,161 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
+import pl.bpiatek.linkshortenerui.dto.UpdateLinkActiveRequest;
+import pl.bpiatek.linkshortenerui.exception.BackendErrorMapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Applies one action to many links at once. The per-link gateway calls run concurrently on virtual
+ * threads, at most {@code dashboard.bulk.concurrency} at a time, so a batch takes about as long as
+ * its slowest call rather than the sum of all of them.
+ */
+@Component
+class BulkLinkActions {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkLinkActions.class);
+
+    enum Action {
+        ACTIVATE("activated"),
+        DEACTIVATE("deactivated"),
+        DELETE("deleted");
+
+        private final String pastTense;
+
+        Action(String pastTense) {
+            this.pastTense = pastTense;
+        }
+
+        String pastTense() {
+            return pastTense;
+        }
+    }
+
+    /**
+     * @param failures error message per link id, in the order the ids were given
+     */
+    record Outcome(int succeeded, Map<String, String> failures) {
+    }
+
+    private final RestClient restClient;
+    private final ExecutorService gatewayCallExecutor;
+    private final BackendErrorMapper errorMapper;
+    private final MeterRegistry meterRegistry;
+    private final int concurrency;
+
+    BulkLinkActions(RestClient restClient,
+                    ExecutorService gatewayCallExecutor,
+                    BackendErrorMapper errorMapper,
+                    MeterRegistry meterRegistry,
+                    @Value("${dashboard.bulk.concurrency:16}") int concurrency) {
+        this.restClient = restClient;
+        this.gatewayCallExecutor = gatewayCallExecutor;
+        this.errorMapper = errorMapper;
+        this.meterRegistry = meterRegistry;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Runs the action for every id and waits for all of them. Never throws for a single link, its
+     * error is collected in the outcome instead.
+     */
+    Outcome apply(Action action, List<String> linkIds, String accessToken) {
+        var sample = Timer.start(meterRegistry);
+        var permits = new Semaphore(concurrency);
+        var calls = new ArrayList<CompletableFuture<String>>(linkIds.size());
+
+        try {
+            for (var linkId : linkIds) {
+                permits.acquireUninterruptibly();
+                calls.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return call(action, linkId, accessToken);
+                    } finally {
+                        permits.release();
+                    }
+                }, gatewayCallExecutor));
+            }
+            CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).join();
+        } finally {
+            sample.stop(Timer.builder("ui.links.bulk.duration")
+                    .description("Time to apply a bulk action to all selected links")
+                    .tag("action", tag(action))
+                    .register(meterRegistry));
+        }
+
+        var failures = new LinkedHashMap<String, String>();
+        for (int i = 0; i < linkIds.size(); i++) {
+            var error = calls.get(i).join();
+            if (error != null) {
+                failures.put(linkIds.get(i), error);
+            }
+        }
+        var succeeded = linkIds.size() - failures.size();
+        count(action, "success", succeeded);
+        count(action, "failure", failures.size());
+        log.info("Bulk {} of {} links: {} succeeded, {} failed", tag(action), linkIds.size(), succeeded, failures.size());
+
+        return new Outcome(succeeded, failures);
+    }
+
+    /**
+     * @return the error message or null when the call succeeded
+     */
+    private String call(Action action, String linkId, String accessToken) {
+        try {
+            switch (action) {
+                case ACTIVATE, DEACTIVATE -> restClient.patch()
+                        .uri("/links/{id}", linkId)
+                        .header("Authorization", "Bearer " + accessToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(new UpdateLinkActiveRequest(action == Action.ACTIVATE))
+                        .retrieve()
+                        .toBodilessEntity();
+                case DELETE -> restClient.delete()
+                        .uri("/links/{id}", linkId)
+                        .header("Authorization", "Bearer " + accessToken)
+                        .retrieve()
+                        .toBodilessEntity();
+            }
+            return null;
+        } catch (RestClientResponseException e) {
+            if (e.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+                return "Your session has expired. Please log in again.";
+            }
+            return errorMapper.message(e);
+        } catch (Exception e) {
+            log.warn("Bulk {} failed for link {}: {}", tag(action), linkId, e.getMessage());
+            return "Our servers are having trouble. Please try again later.";
+        }
+    }
+
+    private void count(Action action, String result, int amount) {
+        Counter.builder("ui.links.bulk.items")
+                .description("Links processed by bulk dashboard actions")
+                .tag("action", tag(action))
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment(amount);
+    }
+
+    private static String tag(Action action) {
+        return action.name().toLowerCase();
+    }
+}
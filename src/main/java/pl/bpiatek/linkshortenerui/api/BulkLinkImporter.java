@@ -0,0 +1,368 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
+import pl.bpiatek.linkshortenerui.api.BulkImportJob.RowResult;
+import pl.bpiatek.linkshortenerui.api.BulkImportJob.RowStatus;
+import pl.bpiatek.linkshortenerui.dto.CreateLinkRequest;
+import pl.bpiatek.linkshortenerui.dto.CreateLinkResponse;
+import pl.bpiatek.linkshortenerui.exception.BackendErrorMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Creates links from an uploaded CSV of {@code longUrl,shortUrl,title,isActive} rows.
+ * <p>
+ * The file is validated in a single pass while it is read, then the valid rows are sent to the
+ * gateway on virtual threads, at most {@code dashboard.import.concurrency} at a time. All calls of
+ * an import share the access token resolved by the request that started it. When the gateway rejects
+ * it, it is refreshed once with the refresh token of that request, a second rejection fails the
+ * remaining rows.
+ */
+@Component
+class BulkLinkImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkLinkImporter.class);
+
+    private static final int MAX_URL_LENGTH = 2048;
+    private static final String SESSION_EXPIRED = "Your session has expired. Please log in again.";
+
+    record Row(int line, CreateLinkRequest request) {
+    }
+
+    record ParsedImport(List<Row> rows, List<RowResult> invalid) {
+
+        int total() {
+            return rows.size() + invalid.size();
+        }
+    }
+
+    private final RestClient restClient;
+    private final TokenRefresher tokenRefresher;
+    private final ExecutorService gatewayCallExecutor;
+    private final BackendErrorMapper errorMapper;
+    private final DashboardPageCache pageCache;
+    private final MeterRegistry meterRegistry;
+    private final int concurrency;
+    private final int maxRows;
+    private final Cache<String, BulkImportJob> jobs;
+    private final Counter createdRows;
+    private final Counter failedRows;
+    private final Counter invalidRows;
+
+    BulkLinkImporter(RestClient restClient,
+                     TokenRefresher tokenRefresher,
+                     ExecutorService gatewayCallExecutor,
+                     BackendErrorMapper errorMapper,
+                     DashboardPageCache pageCache,
+                     MeterRegistry meterRegistry,
+                     @Value("${dashboard.import.concurrency:8}") int concurrency,
+                     @Value("${dashboard.import.max-rows:10000}") int maxRows,
+                     @Value("${dashboard.import.job-ttl:1h}") Duration jobTtl) {
+        this.restClient = restClient;
+        this.tokenRefresher = tokenRefresher;
+        this.gatewayCallExecutor = gatewayCallExecutor;
+        this.errorMapper = errorMapper;
+        this.pageCache = pageCache;
+        this.meterRegistry = meterRegistry;
+        this.concurrency = concurrency;
+        this.maxRows = maxRows;
+        this.jobs = Caffeine.newBuilder()
+                .expireAfterWrite(jobTtl)
+                .maximumSize(1_000)
+                .build();
+        this.createdRows = rowCounter("created");
+        this.failedRows = rowCounter("failed");
+        this.invalidRows = rowCounter("invalid");
+    }
+
+    int maxRows() {
+        return maxRows;
+    }
+
+    /**
+     * Reads and validates the file line by line. An optional header line is skipped.
+     *
+     * @throws IllegalArgumentException when the file has more than {@code dashboard.import.max-rows} rows
+     */
+    ParsedImport parse(InputStream csv) throws IOException {
+        var rows = new ArrayList<Row>();
+        var invalid = new ArrayList<RowResult>();
+        var reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8));
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || (lineNumber == 1 && isHeader(line))) {
+                continue;
+            }
+            if (rows.size() + invalid.size() >= maxRows) {
+                throw new IllegalArgumentException("The file has more than " + maxRows + " rows.");
+            }
+
+            var fields = splitCsvLine(line);
+            var longUrl = field(fields, 0);
+            var shortUrl = field(fields, 1);
+            var error = validate(fields, longUrl, shortUrl);
+            if (error != null) {
+                invalid.add(new RowResult(lineNumber, longUrl, shortUrl, RowStatus.INVALID, error));
+                continue;
+            }
+            var isActive = field(fields, 3);
+            rows.add(new Row(lineNumber, new CreateLinkRequest(
+                    longUrl,
+                    shortUrl,
+                    isActive == null || Boolean.parseBoolean(isActive),
+                    field(fields, 2))));
+        }
+        return new ParsedImport(rows, invalid);
+    }
+
+    /**
+     * Registers the job and starts sending its rows. Returns immediately.
+     */
+    BulkImportJob start(String userId, String accessToken, String refreshToken, ParsedImport parsed) {
+        var job = new BulkImportJob(userId, parsed.total());
+        jobs.put(job.getId(), job);
+        for (var result : parsed.invalid()) {
+            job.record(result);
+            invalidRows.increment();
+        }
+        var tokens = new ImportTokens(accessToken, refreshToken);
+        gatewayCallExecutor.execute(() -> run(job, tokens, parsed.rows()));
+        return job;
+    }
+
+    /**
+     * The job, if it exists and was started by the user.
+     */
+    BulkImportJob find(String jobId, String userId) {
+        var job = jobs.getIfPresent(jobId);
+        if (job == null || userId == null || !Objects.equals(job.userId(), userId)) {
+            return null;
+        }
+        return job;
+    }
+
+    private void run(BulkImportJob job, ImportTokens tokens, List<Row> rows) {
+        var sample = Timer.start(meterRegistry);
+        var permits = new Semaphore(concurrency);
+        var submitted = 0;
+        try {
+            for (var row : rows) {
+                permits.acquire();
+                gatewayCallExecutor.execute(() -> {
+                    try {
+                        create(job, tokens, row);
+                    } finally {
+                        permits.release();
+                    }
+                });
+                submitted++;
+            }
+            // all permits back means all rows are done
+            permits.acquire(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (var row : rows.subList(submitted, rows.size())) {
+                recordFailure(job, row, "The import was interrupted.");
+            }
+        } finally {
+            job.finish();
+            pageCache.invalidate(job.userId());
+            var nanos = sample.stop(Timer.builder("ui.links.import.duration")
+                    .description("Time to send all rows of a bulk link import")
+                    .register(meterRegistry));
+            log.info("Bulk import {} finished: {} created, {} failed, {} invalid in {} ms",
+                    job.getId(), job.getCreated(), job.getFailed(), job.getInvalid(), nanos / 1_000_000);
+        }
+    }
+
+    private void create(BulkImportJob job, ImportTokens tokens, Row row) {
+        if (job.isSessionExpired()) {
+            recordFailure(job, row, SESSION_EXPIRED);
+            return;
+        }
+        try {
+            var accessToken = tokens.accessToken;
+            CreateLinkResponse response;
+            try {
+                response = send(accessToken, row);
+            } catch (HttpClientErrorException.Unauthorized e) {
+                response = send(tokens.refreshedAfter(accessToken), row);
+            }
+            var shortUrl = response != null ? response.shortUrl() : row.request().shortUrl();
+            job.record(new RowResult(row.line(), row.request().longUrl(), shortUrl, RowStatus.CREATED, null));
+            createdRows.increment();
+        } catch (RestClientResponseException e) {
+            if (e.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+                // rejected after the refresh, the remaining rows fail fast
+                job.expireSession();
+                recordFailure(job, row, SESSION_EXPIRED);
+            } else {
+                recordFailure(job, row, errorMapper.message(e));
+            }
+        } catch (Exception e) {
+            log.warn("Bulk import {} failed to create line {}: {}", job.getId(), row.line(), e.getMessage());
+            recordFailure(job, row, "Our servers are having trouble. Please try again later.");
+        }
+    }
+
+    private CreateLinkResponse send(String accessToken, Row row) {
+        return restClient.post()
+                .uri("/links")
+                .header("Authorization", "Bearer " + accessToken)
+                .body(row.request())
+                .retrieve()
+                .body(CreateLinkResponse.class);
+    }
+
+    private void recordFailure(BulkImportJob job, Row row, String message) {
+        job.record(new RowResult(row.line(), row.request().longUrl(), row.request().shortUrl(), RowStatus.FAILED, message));
+        failedRows.increment();
+    }
+
+    private static String validate(List<String> fields, String longUrl, String shortUrl) {
+        if (fields.size() > 4) {
+            return "Expected at most 4 columns: longUrl,shortUrl,title,isActive.";
+        }
+        if (longUrl == null) {
+            return "Destination URL is missing.";
+        }
+        if (longUrl.length() > MAX_URL_LENGTH) {
+            return "Destination URL is longer than " + MAX_URL_LENGTH + " characters.";
+        }
+        if (longUrl.chars().anyMatch(Character::isWhitespace)) {
+            return "Destination URL must not contain spaces.";
+        }
+        if (shortUrl != null && shortUrl.chars().anyMatch(c -> c == '/' || Character.isWhitespace(c))) {
+            return "Custom alias must not contain spaces or slashes.";
+        }
+        var isActive = field(fields, 3);
+        if (isActive != null && !isActive.equalsIgnoreCase("true") && !isActive.equalsIgnoreCase("false")) {
+            return "isActive must be true or false.";
+        }
+        return null;
+    }
+
+    private static boolean isHeader(String line) {
+        return line.stripLeading().regionMatches(true, 0, "longUrl", 0, "longUrl".length());
+    }
+
+    /**
+     * Trimmed field or null when it is missing or blank.
+     */
+    private static String field(List<String> fields, int index) {
+        if (index >= fields.size()) {
+            return null;
+        }
+        var value = fields.get(index).strip();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * RFC 4180 fields of a single line: quoted fields may contain separators and doubled quotes.
+     */
+    private static List<String> splitCsvLine(String line) {
+        var fields = new ArrayList<String>(4);
+        var field = new StringBuilder();
+        var quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            var c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private Counter rowCounter(String result) {
+        return Counter.builder("ui.links.import.rows")
+                .description("Rows of bulk link imports by result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Tokens of one import. Rows rejected with the same token wait for a single refresh, the lock is
+     * not a monitor so waiting virtual threads don't pin their carriers.
+     */
+    private final class ImportTokens {
+        private final ReentrantLock lock = new ReentrantLock();
+        volatile String accessToken;
+        private String refreshToken;
+        private boolean refreshed;
+
+        ImportTokens(String accessToken, String refreshToken) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+        }
+
+        /**
+         * The token to retry with after the gateway rejected the given one.
+         *
+         * @throws HttpClientErrorException with status 401 once the tokens have been refreshed already
+         */
+        String refreshedAfter(String rejected) {
+            lock.lock();
+            try {
+                if (!rejected.equals(accessToken)) {
+                    return accessToken;
+                }
+                if (refreshed || refreshToken == null || refreshToken.isBlank()) {
+                    throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED, "Refresh failed");
+                }
+                refreshed = true;
+                log.debug("refreshedAfter(): access token rejected during the import, refreshing");
+                try {
+                    var tokens = tokenRefresher.refresh(refreshToken);
+                    accessToken = tokens.accessToken();
+                    refreshToken = tokens.refreshToken();
+                    return accessToken;
+                } catch (RestClientResponseException e) {
+                    throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED, "Refresh failed");
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.ui.Model;
+import org.springframework.web.context.request.WebRequest;
+import pl.bpiatek.linkshortenerui.dto.DashboardLinkResponse;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.MetricEntryResponse;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Conditional GET for authenticated pages. The ETag is a hash of the backend data the page shows,
+ * computed before rendering, so a 304 costs a hash instead of a Thymeleaf render and the transfer.
+ * <p>
+ * The hash also covers the start of this instance: templates can change with a deployment while
+ * the data stays the same.
+ */
+@Component
+class ConditionalRendering {
+
+    private static final long INSTANCE_SEED = System.currentTimeMillis();
+
+    private final MeterRegistry meterRegistry;
+
+    ConditionalRendering(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Sets the validator headers and checks If-None-Match. Pages with a flash message or stale data
+     * are not conditional, they differ from what the data alone says.
+     *
+     * @return true when the browser's copy is current and the handler should return without a view
+     */
+    boolean notModified(WebRequest request, HttpServletResponse response, Model model, String view, long dataHash) {
+        if (model.containsAttribute("success") || model.containsAttribute("error") || model.containsAttribute("stale")) {
+            return false;
+        }
+        // revalidate every time, the data behind the page changes without the URL changing
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+
+        var etag = "W/\"" + Long.toHexString(mix(dataHash, INSTANCE_SEED)) + "\"";
+        if (request.checkNotModified(etag)) {
+            Counter.builder("ui.http.not-modified")
+                    .description("Authenticated pages answered with 304 before rendering")
+                    .tag("view", view)
+                    .register(meterRegistry)
+                    .increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Covers every field the dashboard renders. updatedAt alone is not enough, not every change of
+     * a link has to move it.
+     */
+    static long dashboardHash(AuthContext auth, PageResponse<LinkDto> page) {
+        var hash = userHash(auth);
+        hash = mix(hash, page.page());
+        hash = mix(hash, page.size());
+        hash = mix(hash, page.totalElements());
+        hash = mix(hash, page.totalPages());
+        if (page.content() == null) {
+            return hash;
+        }
+        for (var link : page.content()) {
+            hash = mix(hash, Objects.hashCode(link.id()));
+            hash = mix(hash, Objects.hashCode(link.linkId()));
+            hash = mix(hash, Objects.hashCode(link.shortUrl()));
+            hash = mix(hash, Objects.hashCode(link.longUrl()));
+            hash = mix(hash, Objects.hashCode(link.title()));
+            hash = mix(hash, link.isActive() ? 1 : 0);
+            hash = mix(hash, link.totalClicks());
+            hash = mix(hash, millis(link.createdAt()));
+            hash = mix(hash, millis(link.updatedAt()));
+        }
+        return hash;
+    }
+
+    static long linkDetailsHash(AuthContext auth, DashboardLinkResponse link) {
+        var hash = userHash(auth);
+        hash = mix(hash, Objects.hashCode(link.linkId()));
+        hash = mix(hash, Objects.hashCode(link.shortUrl()));
+        hash = mix(hash, Objects.hashCode(link.longUrl()));
+        hash = mix(hash, Objects.hashCode(link.title()));
+        hash = mix(hash, link.active() ? 1 : 0);
+        hash = mix(hash, millis(link.createdAt()));
+        hash = mix(hash, link.totalClicks());
+        hash = mix(hash, millis(link.updatedAt()));
+        hash = mix(hash, metricsHash(link.clicksByCountry()));
+        hash = mix(hash, metricsHash(link.clicksByDevice()));
+        return mix(hash, metricsHash(link.clicksByOs()));
+    }
+
+    private static long userHash(AuthContext auth) {
+        // the navbar shows the email
+        return mix(Objects.hashCode(auth.userId()), Objects.hashCode(auth.email()));
+    }
+
+    private static long metricsHash(List<MetricEntryResponse> metrics) {
+        if (metrics == null) {
+            return 0;
+        }
+        long hash = metrics.size();
+        for (var metric : metrics) {
+            hash = mix(hash, Objects.hashCode(metric.key()));
+            hash = mix(hash, metric.value());
+        }
+        return hash;
+    }
+
+    private static long millis(Instant instant) {
+        return instant != null ? instant.toEpochMilli() : 0;
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= value;
+        hash *= 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+}
@@ -1,7 +1,11 @@
 package pl.bpiatek.linkshortenerui.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
@@ -13,18 +17,29 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import pl.bpiatek.linkshortenerui.dto.CreateLinkRequest;
 import pl.bpiatek.linkshortenerui.dto.CreateLinkResponse;
 import pl.bpiatek.linkshortenerui.dto.DashboardLinkResponse;
 import pl.bpiatek.linkshortenerui.dto.LinkDto;
 import pl.bpiatek.linkshortenerui.dto.PageResponse;
+import pl.bpiatek.linkshortenerui.dto.UpdateLinkActiveRequest;
 import pl.bpiatek.linkshortenerui.dto.UpdateLinkRequest;
 import pl.bpiatek.linkshortenerui.exception.BackendErrorMapper;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 
 @Controller
@@ -32,61 +47,252 @@ class DashboardController {
 
     Logger log = LoggerFactory.getLogger(DashboardController.class);
 
+    private static final int STREAMING_FLUSH_ROWS = 100;
+    private static final PageResponse<LinkDto> EMPTY_PAGE = new PageResponse<>(List.of(), 0, 0, 0, 0);
+    private static final DefaultResponseErrorHandler GATEWAY_ERROR_HANDLER = new DefaultResponseErrorHandler();
+
     private final BackendApiService backendApi;
     private final RestClient restClient;
     private final BackendErrorMapper errorMapper;
-
-    DashboardController(BackendApiService backendApi, RestClient restClient, BackendErrorMapper errorMapper) {
+    private final DashboardPageCache pageCache;
+    private final StaleFallbackCache staleCache;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService gatewayCallExecutor;
+    private final BulkLinkActions bulkActions;
+    private final ConditionalRendering conditionalRendering;
+    private final GatewayReadCoalescer readCoalescer;
+    private final DashboardPrefetcher prefetcher;
+    private final int streamingThreshold;
+    private final boolean earlyFlush;
+
+    DashboardController(BackendApiService backendApi,
+                        RestClient restClient,
+                        BackendErrorMapper errorMapper,
+                        DashboardPageCache pageCache,
+                        StaleFallbackCache staleCache,
+                        ObjectMapper objectMapper,
+                        ExecutorService gatewayCallExecutor,
+                        BulkLinkActions bulkActions,
+                        ConditionalRendering conditionalRendering,
+                        GatewayReadCoalescer readCoalescer,
+                        DashboardPrefetcher prefetcher,
+                        @Value("${dashboard.streaming.threshold:200}") int streamingThreshold,
+                        @Value("${dashboard.early-flush.enabled:false}") boolean earlyFlush) {
         this.backendApi = backendApi;
         this.restClient = restClient;
         this.errorMapper = errorMapper;
+        this.pageCache = pageCache;
+        this.staleCache = staleCache;
+        this.objectMapper = objectMapper;
+        this.gatewayCallExecutor = gatewayCallExecutor;
+        this.bulkActions = bulkActions;
+        this.conditionalRendering = conditionalRendering;
+        this.readCoalescer = readCoalescer;
+        this.prefetcher = prefetcher;
+        this.streamingThreshold = streamingThreshold;
+        this.earlyFlush = earlyFlush;
     }
 
     @GetMapping("/dashboard")
     String dashboard(
             Model model,
+            WebRequest webRequest,
+            HttpServletResponse response,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(defaultValue = "created_at,desc") String sort) {
-        var responseType = new ParameterizedTypeReference<PageResponse<LinkDto>>() {};
+        Htmx.varyOnRequest(response);
+
+        if (size > streamingThreshold) {
+            addStreamingPage(model, response, page, size, sort);
+            return "dashboard";
+        }
+        // a flashed error from a redirect is shown as is, the deferred mode owns the "error" attribute
+        if (earlyFlush && !model.containsAttribute("error")) {
+            return deferredDashboard(model, response, page, size, sort);
+        }
+
+        var linkPage = addPage(model, page, size, sort);
+        if (conditionalRendering.notModified(webRequest, response, model, "dashboard",
+                ConditionalRendering.dashboardHash(AuthContext.current(), linkPage))) {
+            return null;
+        }
+        return "dashboard";
+    }
 
+    /**
+     * Paging with htmx: only the table and the pagination are rendered, the navbar, alerts and form
+     * stay as they are in the browser.
+     */
+    @GetMapping(value = "/dashboard", headers = {Htmx.FRAGMENT_REQUEST, Htmx.NOT_HISTORY_RESTORE})
+    String dashboardTable(
+            Model model,
+            HttpServletResponse response,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "created_at,desc") String sort) {
+        Htmx.varyOnRequest(response);
+
+        if (size > streamingThreshold) {
+            addStreamingPage(model, response, page, size, sort);
+        } else {
+            addPage(model, page, size, sort);
+        }
+
+        if (model.containsAttribute("error")) {
+            Htmx.retarget(response, "#alerts");
+            return "dashboard :: alerts";
+        }
+        return "dashboard :: link-table";
+    }
+
+    private PageResponse<LinkDto> addPage(Model model, int page, int size, String sort) {
         PageResponse<LinkDto> linkPage = null;
 
+        // null until the gateway has accepted the token, the page is not cached for a cookie that only claims a user
+        var userId = AuthContext.current().authenticatedUserId();
+
         try {
-            linkPage = backendApi.execute(jwt ->
-                    restClient.get()
-                            .uri(uriBuilder -> uriBuilder
-                                    .path("/dashboard/links")
-                                    .queryParam("page", page)
-                                    .queryParam("size", size)
-                                    .queryParam("sort", sort)
-                                    .build())
-                            .header("Authorization", "Bearer " + jwt)
-                            .retrieve()
-                            .body(responseType)
-            );
+            linkPage = pageCache.get(userId, page, size, sort, () ->
+                    backendApi.execute(jwt -> fetchPage(jwt, userId, page, size, sort)));
+        } catch (CallNotPermittedException | ResourceAccessException | HttpServerErrorException e) {
+            log.warn("Gateway unavailable, trying last known dashboard page: {}", e.getMessage());
+            linkPage = staleCache.stalePage(userId, page, size, sort);
+            if (linkPage != null) {
+                model.addAttribute("stale", true);
+            } else {
+                model.addAttribute("error", "Could not load links.");
+            }
         } catch (Exception e) {
             log.error("Failed to fetch dashboard links", e);
             model.addAttribute("error", "Could not load links.");
         }
 
-        if (linkPage == null) {
-            linkPage = new PageResponse<>(List.of(), 0, 0, 0, 0);
-        } else if (linkPage.content() == null) {
-            linkPage = new PageResponse<>(List.of(), linkPage.page(), linkPage.size(), linkPage.totalElements(), linkPage.totalPages());
-        }
-
+        linkPage = withContent(linkPage);
         model.addAttribute("page", linkPage);
 
+        if (!model.containsAttribute("error") && !model.containsAttribute("stale")) {
+            // the token the page was fetched with, refreshed by the call if it had to be
+            prefetcher.afterResponse(userId, AuthContext.current().accessToken(), page, size, sort, linkPage,
+                    jwt -> loadPage(jwt, userId, page + 1, size, sort),
+                    (jwt, linkId) -> loadLinkDetails(jwt, userId, linkId));
+        }
+
         if (linkPage.content() != null) {
             log.info("Rendering dashboard with {} links. First link: {}",
                     linkPage.content().size(),
                     linkPage.content().isEmpty() ? "None" : linkPage.content().getFirst());
         }
+        return linkPage;
+    }
+
+    /**
+     * Starts the gateway call on a virtual thread and renders the page right away. The head (and
+     * with it the stylesheet and script requests) reaches the browser while the call is in flight,
+     * the table is rendered once the data arrives.
+     */
+    private String deferredDashboard(Model model, HttpServletResponse response, int page, int size, String sort) {
+        var userId = AuthContext.current().authenticatedUserId();
+
+        var call = backendApi.executeAsync(jwt -> pageCache.get(userId, page, size, sort, () ->
+                        fetchPage(jwt, userId, page, size, sort)), gatewayCallExecutor)
+                .thenApply(DashboardController::withContent);
+
+        new DeferredGatewayCall<>(call,
+                () -> flush(response),
+                EMPTY_PAGE,
+                cause -> isGatewayUnavailable(cause) ? staleCache.stalePage(userId, page, size, sort) : null,
+                "Could not load links.")
+                .addTo(model, "page");
 
         return "dashboard";
     }
 
+    private PageResponse<LinkDto> fetchPage(String jwt, String userId, int page, int size, String sort) {
+        var prefetched = prefetcher.takePage(jwt, page, size, sort);
+        return prefetched != null ? prefetched : loadPage(jwt, userId, page, size, sort);
+    }
+
+    private PageResponse<LinkDto> loadPage(String jwt, String userId, int page, int size, String sort) {
+        var uri = "/dashboard/links?page=" + page + "&size=" + size + "&sort=" + sort;
+        return readCoalescer.get(userId, uri, () -> {
+            var fetched = restClient.get()
+                    .uri(uriBuilder -> uriBuilder
+                            .path("/dashboard/links")
+                            .queryParam("page", page)
+                            .queryParam("size", size)
+                            .queryParam("sort", sort)
+                            .build())
+                    .header("Authorization", "Bearer " + jwt)
+                    .retrieve()
+                    .body(new ParameterizedTypeReference<PageResponse<LinkDto>>() {});
+            staleCache.rememberPage(userId, page, size, sort, fetched);
+            return fetched;
+        });
+    }
+
+    private static PageResponse<LinkDto> withContent(PageResponse<LinkDto> linkPage) {
+        if (linkPage == null) {
+            return EMPTY_PAGE;
+        }
+        if (linkPage.content() == null) {
+            return new PageResponse<>(List.of(), linkPage.page(), linkPage.size(), linkPage.totalElements(), linkPage.totalPages());
+        }
+        return linkPage;
+    }
+
+    private static boolean isGatewayUnavailable(Throwable cause) {
+        return cause instanceof CallNotPermittedException
+                || cause instanceof ResourceAccessException
+                || cause instanceof HttpServerErrorException;
+    }
+
+    /**
+     * Large pages are rendered while they are decoded: rows go from the gateway response through
+     * the template to the client without the whole page ever being on the heap. They bypass the
+     * page and stale caches for the same reason.
+     */
+    private void addStreamingPage(Model model, HttpServletResponse response, int page, int size, String sort) {
+        try {
+            var linkPage = backendApi.execute(jwt ->
+                    restClient.get()
+                            .uri(uriBuilder -> uriBuilder
+                                    .path("/dashboard/links")
+                                    .queryParam("page", page)
+                                    .queryParam("size", size)
+                                    .queryParam("sort", sort)
+                                    .build())
+                            .header("Authorization", "Bearer " + jwt)
+                            .exchange((gatewayRequest, gatewayResponse) -> {
+                                if (gatewayResponse.getStatusCode().isError()) {
+                                    try (gatewayResponse) {
+                                        GATEWAY_ERROR_HANDLER.handleError(
+                                                gatewayRequest.getURI(), gatewayRequest.getMethod(), gatewayResponse);
+                                    }
+                                }
+                                return StreamingLinkPage.open(
+                                        gatewayResponse, objectMapper, () -> flush(response), STREAMING_FLUSH_ROWS);
+                            }, false)
+            );
+
+            RequestContextHolder.currentRequestAttributes().registerDestructionCallback(
+                    StreamingLinkPage.class.getName(), linkPage::close, RequestAttributes.SCOPE_REQUEST);
+            model.addAttribute("page", linkPage);
+        } catch (Exception e) {
+            log.error("Failed to stream dashboard links", e);
+            model.addAttribute("error", "Could not load links.");
+            model.addAttribute("page", EMPTY_PAGE);
+        }
+    }
+
+    private static void flush(HttpServletResponse response) {
+        try {
+            response.flushBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @PostMapping("/dashboard/links")
     String createLink(
             @RequestParam String longUrl,
@@ -115,20 +321,46 @@ class DashboardController {
             redirectAttributes.addFlashAttribute("title", title);
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("error", "An unexpected error occurred.");
+        } finally {
+            pageCache.invalidate(AuthContext.current().authenticatedUserId());
         }
 
         return "redirect:/dashboard";
     }
 
-    @GetMapping("/dashboard/links/{id}/edit")
-    String editLinkPage(@PathVariable Long id, Model model, RedirectAttributes redirectAttributes) {
+    /**
+     * Activates or deactivates a single link from its row, {@link LinkRowController} handles it with htmx.
+     */
+    @PostMapping("/dashboard/links/{id}/active")
+    String setLinkActive(
+            @PathVariable Long id,
+            @RequestParam boolean isActive,
+            RedirectAttributes redirectAttributes
+    ) {
         try {
-            var link = backendApi.execute(jwt -> restClient.get()
+            backendApi.execute(jwt -> restClient.patch()
                     .uri("/links/{id}", id)
                     .header("Authorization", "Bearer " + jwt)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(new UpdateLinkActiveRequest(isActive))
                     .retrieve()
-                    .body(LinkDto.class)
+                    .toBodilessEntity()
             );
+            redirectAttributes.addFlashAttribute("success", isActive ? "Link activated." : "Link deactivated.");
+        } catch (RestClientResponseException e) {
+            errorMapper.map(e, redirectAttributes);
+        } catch (Exception e) {
+            redirectAttributes.addFlashAttribute("error", "An unexpected error occurred.");
+        } finally {
+            pageCache.invalidate(AuthContext.current().authenticatedUserId());
+        }
+        return "redirect:/dashboard";
+    }
+
+    @GetMapping("/dashboard/links/{id}/edit")
+    String editLinkPage(@PathVariable Long id, Model model, RedirectAttributes redirectAttributes) {
+        try {
+            var link = backendApi.execute(jwt -> fetchLink(jwt, id));
 
             var form = new UpdateLinkRequest(link.longUrl(), link.isActive(), link.title());
 
@@ -164,17 +396,14 @@ class DashboardController {
                     .toBodilessEntity()
             );
 
+            pageCache.invalidate(AuthContext.current().authenticatedUserId());
             redirectAttributes.addFlashAttribute("success", "Link updated successfully!");
             return "redirect:/dashboard";
         } catch (RestClientResponseException e) {
+            pageCache.invalidate(AuthContext.current().authenticatedUserId());
             errorMapper.map(e, bindingResult, model);
             try {
-                LinkDto link = backendApi.execute(jwt -> restClient.get()
-                        .uri("/links/{id}", id)
-                        .header("Authorization", "Bearer " + jwt)
-                        .retrieve()
-                        .body(LinkDto.class)
-                );
+                LinkDto link = backendApi.execute(jwt -> fetchLink(jwt, id));
                 model.addAttribute("shortUrl", link.shortUrl());
             } catch (Exception ex) {
                 redirectAttributes.addFlashAttribute("error", "An error occurred.");
@@ -201,25 +430,108 @@ class DashboardController {
             errorMapper.map(e, redirectAttributes);
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("error", "Failed to delete link.");
+        } finally {
+            pageCache.invalidate(AuthContext.current().authenticatedUserId());
+        }
+        return "redirect:/dashboard";
+    }
+
+    /**
+     * Activates, deactivates or deletes all selected links in one request and redirects back to the
+     * same dashboard page once, with a summary of what worked and what did not.
+     */
+    @PostMapping("/dashboard/links/bulk")
+    String bulkAction(
+            @RequestParam(name = "ids", required = false) List<String> ids,
+            @RequestParam String action,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size,
+            RedirectAttributes redirectAttributes
+    ) {
+        redirectAttributes.addAttribute("page", page);
+        redirectAttributes.addAttribute("size", size);
+
+        if (ids == null || ids.isEmpty()) {
+            redirectAttributes.addFlashAttribute("error", "Select at least one link.");
+            return "redirect:/dashboard";
         }
+
+        BulkLinkActions.Action bulkAction;
+        try {
+            bulkAction = BulkLinkActions.Action.valueOf(action.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            redirectAttributes.addFlashAttribute("error", "Unknown action: " + action);
+            return "redirect:/dashboard";
+        }
+
+        try {
+            var outcome = bulkActions.apply(bulkAction, ids.stream().distinct().toList(), backendApi.accessToken());
+
+            if (outcome.succeeded() > 0) {
+                redirectAttributes.addFlashAttribute("success",
+                        linkCount(outcome.succeeded()) + " " + bulkAction.pastTense() + " successfully.");
+            }
+            if (!outcome.failures().isEmpty()) {
+                redirectAttributes.addFlashAttribute("error", failureSummary(bulkAction, outcome.failures()));
+            }
+        } finally {
+            pageCache.invalidate(AuthContext.current().authenticatedUserId());
+        }
+
         return "redirect:/dashboard";
     }
 
+    private static String failureSummary(BulkLinkActions.Action action, Map<String, String> failures) {
+        var summary = new StringBuilder()
+                .append(linkCount(failures.size()))
+                .append(" could not be ")
+                .append(action.pastTense())
+                .append(": ");
+        failures.entrySet().stream()
+                .limit(3)
+                .forEach(failure -> summary.append(failure.getKey()).append(" (").append(failure.getValue()).append("), "));
+        summary.setLength(summary.length() - 2);
+        if (failures.size() > 3) {
+            summary.append(" and ").append(failures.size() - 3).append(" more");
+        }
+        return summary.append('.').toString();
+    }
+
+    private static String linkCount(int count) {
+        return count == 1 ? "1 link" : count + " links";
+    }
+
     @GetMapping("/dashboard/links/{linkId}")
     public String linkDetails(
             @PathVariable String linkId,
-            Model model
+            Model model,
+            WebRequest webRequest,
+            HttpServletResponse response
     ) {
+        var userId = AuthContext.current().authenticatedUserId();
+
+        if (earlyFlush) {
+            var call = backendApi.executeAsync(jwt -> fetchLinkDetails(jwt, userId, linkId), gatewayCallExecutor);
+            new DeferredGatewayCall<DashboardLinkResponse>(call,
+                    () -> flush(response),
+                    null,
+                    cause -> isGatewayUnavailable(cause) ? staleCache.staleLink(userId, linkId) : null,
+                    "Could not load link details.")
+                    .addTo(model, "link");
+            return "link-details";
+        }
+
         DashboardLinkResponse link;
 
         try {
-            link = backendApi.execute(jwt ->
-                    restClient.get()
-                            .uri("/dashboard/links/{id}", linkId)
-                            .header("Authorization", "Bearer " + jwt)
-                            .retrieve()
-                            .body(DashboardLinkResponse.class)
-            );
+            link = backendApi.execute(jwt -> fetchLinkDetails(jwt, userId, linkId));
+        } catch (CallNotPermittedException | ResourceAccessException | HttpServerErrorException ex) {
+            log.warn("Gateway unavailable, trying last known details of {}: {}", linkId, ex.getMessage());
+            link = staleCache.staleLink(userId, linkId);
+            if (link == null) {
+                return "redirect:/dashboard";
+            }
+            model.addAttribute("stale", true);
         } catch (Exception ex) {
             log.error("Failed to fetch link details for {}", linkId, ex);
             model.addAttribute("error", "Could not load link details.");
@@ -227,6 +539,35 @@ class DashboardController {
         }
 
         model.addAttribute("link", link);
+        if (link != null && conditionalRendering.notModified(webRequest, response, model, "link-details",
+                ConditionalRendering.linkDetailsHash(AuthContext.current(), link))) {
+            return null;
+        }
         return "link-details";
     }
-}
\ No newline at end of file
+
+    private DashboardLinkResponse fetchLinkDetails(String jwt, String userId, String linkId) {
+        var prefetched = prefetcher.takeLink(jwt, linkId);
+        return prefetched != null ? prefetched : loadLinkDetails(jwt, userId, linkId);
+    }
+
+    private DashboardLinkResponse loadLinkDetails(String jwt, String userId, String linkId) {
+        return readCoalescer.get(userId, "/dashboard/links/" + linkId, () -> {
+            var link = restClient.get()
+                    .uri("/dashboard/links/{id}", linkId)
+                    .header("Authorization", "Bearer " + jwt)
+                    .retrieve()
+                    .body(DashboardLinkResponse.class);
+            staleCache.rememberLink(userId, linkId, link);
+            return link;
+        });
+    }
+
+    private LinkDto fetchLink(String jwt, Long id) {
+        return readCoalescer.get(AuthContext.current().authenticatedUserId(), "/links/" + id, () -> restClient.get()
+                .uri("/links/{id}", id)
+                .header("Authorization", "Bearer " + jwt)
+                .retrieve()
+                .body(LinkDto.class));
+    }
+}
@@ -0,0 +1,147 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived per-user cache of dashboard pages fetched from the gateway.
+ * <p>
+ * Bounded by an estimated heap size rather than entry count, so pages with long URLs
+ * can't push the pod over its memory limit. Handlers that modify links must call
+ * {@link #invalidate(String)} so the redirect back to the dashboard shows the change, it also
+ * keeps later reads from joining gateway reads that started before the change and drops what
+ * was prefetched for the user. A load that was already running when the user's links changed is
+ * returned to its caller but not cached.
+ */
+@Component
+class DashboardPageCache {
+
+    // rough per-object costs (headers, references, boxed fields) on a 64-bit JVM with compressed oops
+    private static final int PAGE_OVERHEAD_BYTES = 128;
+    private static final int LINK_OVERHEAD_BYTES = 160;
+
+    private final Cache<Key, PageResponse<LinkDto>> pages;
+    // per user, bumped by every invalidation
+    private final Cache<String, AtomicLong> writes;
+    private final GatewayReadCoalescer readCoalescer;
+    private final DashboardPrefetcher prefetcher;
+
+    DashboardPageCache(MeterRegistry meterRegistry,
+                       GatewayReadCoalescer readCoalescer,
+                       DashboardPrefetcher prefetcher,
+                       @Value("${dashboard.cache.ttl:30s}") Duration ttl,
+                       @Value("${dashboard.cache.max-size:16MB}") DataSize maxSize) {
+        this.readCoalescer = readCoalescer;
+        this.prefetcher = prefetcher;
+        this.pages = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((Key key, PageResponse<LinkDto> page) -> estimateBytes(key, page))
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.writes = Caffeine.newBuilder()
+                .expireAfterAccess(ttl)
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, pages, "dashboard.pages");
+        Gauge.builder("ui.dashboard.cache.heap", pages, DashboardPageCache::weightedSize)
+                .description("Estimated heap held by cached dashboard pages")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached page or loads it. The user id must be {@link AuthContext#authenticatedUserId()},
+     * requests without one are never cached.
+     * Loading happens outside of the cache lock, so concurrent misses for the same page may both
+     * hit the gateway, but no virtual thread is ever pinned waiting on another one's I/O.
+     */
+    PageResponse<LinkDto> get(String userId, int page, int size, String sort, Supplier<PageResponse<LinkDto>> loader) {
+        if (userId == null) {
+            return loader.get();
+        }
+
+        var key = new Key(userId, page, size, sort);
+        var cached = pages.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var userWrites = writes.get(userId, user -> new AtomicLong());
+        var generation = userWrites.get();
+        var loaded = loader.get();
+        if (loaded != null) {
+            store(key, loaded, userWrites, generation);
+        }
+        return loaded;
+    }
+
+    void invalidate(String userId) {
+        if (userId != null) {
+            writes.get(userId, user -> new AtomicLong()).incrementAndGet();
+            pages.asMap().keySet().removeIf(key -> key.userId().equals(userId));
+        }
+        readCoalescer.forget(userId);
+        prefetcher.forget(userId);
+    }
+
+    private void store(Key key, PageResponse<LinkDto> page, AtomicLong userWrites, long generation) {
+        if (!unchanged(key.userId(), userWrites, generation)) {
+            return;
+        }
+        pages.put(key, page);
+        // an invalidation that started after the check above has to win
+        if (!unchanged(key.userId(), userWrites, generation)) {
+            pages.asMap().remove(key, page);
+        }
+    }
+
+    /**
+     * No invalidation since the generation was read. A counter that expired in the meantime counts
+     * as changed, its replacement starts from zero again.
+     */
+    private boolean unchanged(String userId, AtomicLong userWrites, long generation) {
+        return writes.getIfPresent(userId) == userWrites && userWrites.get() == generation;
+    }
+
+    private static int estimateBytes(Key key, PageResponse<LinkDto> page) {
+        long bytes = PAGE_OVERHEAD_BYTES + sizeOf(key.userId()) + sizeOf(key.sort());
+        if (page.content() != null) {
+            for (var link : page.content()) {
+                bytes += LINK_OVERHEAD_BYTES
+                        + sizeOf(link.linkId())
+                        + sizeOf(link.userId())
+                        + sizeOf(link.shortUrl())
+                        + sizeOf(link.longUrl())
+                        + sizeOf(link.title());
+            }
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private static long sizeOf(String value) {
+        // String header + backing array, assuming Latin-1 compact strings
+        return value == null ? 0 : 40 + value.length();
+    }
+
+    private static double weightedSize(Cache<Key, PageResponse<LinkDto>> cache) {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    private record Key(String userId, int page, int size, String sort) {
+    }
+}
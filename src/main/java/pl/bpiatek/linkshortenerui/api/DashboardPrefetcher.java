@@ -0,0 +1,243 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import pl.bpiatek.linkshortenerui.dto.DashboardLinkResponse;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Fetches what a user most likely opens next once a dashboard page has been sent: the next page and
+ * the details of the most clicked links on it. Results are kept per user for a short time and taken
+ * by the handlers before they call the gateway.
+ * <p>
+ * A prefetched result is handed out for the access token of the request that takes it, only when the
+ * gateway has accepted that token ({@link AuthenticatedTokens}) and it names the user it was fetched
+ * for. A user id from an unverified cookie is never enough. The prefetch itself runs with the token
+ * the request was served with, it is skipped rather than refreshed when that one is not accepted.
+ * <p>
+ * Prefetching only uses spare capacity: at most dashboard.prefetch.concurrency calls run at once
+ * across all users, anything beyond that is skipped rather than queued. Whether it pays off shows in
+ * ui.dashboard.prefetch.lookups (hit rate of the handlers) against ui.dashboard.prefetch.fetches.
+ */
+@Component
+class DashboardPrefetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(DashboardPrefetcher.class);
+
+    private final TokenExtractor tokenExtractor;
+    private final AuthenticatedTokens authenticatedTokens;
+    private final ExecutorService gatewayCallExecutor;
+    private final boolean enabled;
+    private final int topLinks;
+    private final Semaphore permits;
+    private final Cache<Key, Object> prefetched;
+    // per user, replaced on every change of their links, results of fetches that overlapped one are dropped
+    private final Cache<String, Object> generations;
+    private final MeterRegistry meterRegistry;
+
+    DashboardPrefetcher(TokenExtractor tokenExtractor,
+                        AuthenticatedTokens authenticatedTokens,
+                        ExecutorService gatewayCallExecutor,
+                        MeterRegistry meterRegistry,
+                        @Value("${dashboard.prefetch.enabled:false}") boolean enabled,
+                        @Value("${dashboard.prefetch.top-links:3}") int topLinks,
+                        @Value("${dashboard.prefetch.concurrency:4}") int concurrency,
+                        @Value("${dashboard.prefetch.ttl:30s}") Duration ttl) {
+        this.tokenExtractor = tokenExtractor;
+        this.authenticatedTokens = authenticatedTokens;
+        this.gatewayCallExecutor = gatewayCallExecutor;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.topLinks = topLinks;
+        this.permits = new Semaphore(concurrency);
+        this.prefetched = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(10_000)
+                .build();
+        this.generations = Caffeine.newBuilder()
+                .expireAfterAccess(ttl)
+                .maximumSize(10_000)
+                .build();
+    }
+
+    /**
+     * Schedules the prefetch of the page after the given one and of the top links on it. The calls
+     * start once the current request has completed, so they never delay the page being rendered.
+     * The user has to be {@link AuthContext#authenticatedUserId()} and the access token the one the
+     * request was served with. Nothing is prefetched when the gateway has not accepted that token,
+     * there is no response left to set a refreshed one on.
+     */
+    void afterResponse(String userId, String accessToken, int page, int size, String sort, PageResponse<LinkDto> linkPage,
+                       Function<String, PageResponse<LinkDto>> nextPageLoader,
+                       BiFunction<String, String, DashboardLinkResponse> linkLoader) {
+        if (!enabled || userId == null) {
+            return;
+        }
+
+        var tasks = new ArrayList<Task>();
+        if (page + 1 < linkPage.totalPages()) {
+            var key = new PageKey(userId, page + 1, size, sort);
+            tasks.add((token, generation) -> fetch(key, "page", nextPageLoader, token, generation));
+        }
+        linkPage.content().stream()
+                .filter(link -> link.linkId() != null && link.totalClicks() > 0)
+                .sorted(Comparator.comparingInt(LinkDto::totalClicks).reversed())
+                .limit(topLinks)
+                .forEach(link -> {
+                    var key = new LinkKey(userId, link.linkId());
+                    tasks.add((token, generation) ->
+                            fetch(key, "link", jwt -> linkLoader.apply(jwt, link.linkId()), token, generation));
+                });
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        if (!userId.equals(authenticatedUser(accessToken))) {
+            log.debug("Prefetch skipped, the access token of the request is not accepted");
+            return;
+        }
+        var generation = generations.get(userId, user -> new Object());
+        Runnable start = () -> {
+            for (var task : tasks) {
+                try {
+                    gatewayCallExecutor.execute(() -> task.run(accessToken, generation));
+                } catch (RejectedExecutionException e) {
+                    log.debug("Prefetch not started, executor is shut down");
+                    return;
+                }
+            }
+        };
+
+        var attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            attributes.registerDestructionCallback(DashboardPrefetcher.class.getName(), start, RequestAttributes.SCOPE_REQUEST);
+        } else {
+            start.run();
+        }
+    }
+
+    /**
+     * The page prefetched for the user of the access token, if any. A hit is taken out, later requests
+     * are served by {@link DashboardPageCache}.
+     */
+    PageResponse<LinkDto> takePage(String accessToken, int page, int size, String sort) {
+        return take(new PageKey(authenticatedUser(accessToken), page, size, sort), "page");
+    }
+
+    DashboardLinkResponse takeLink(String accessToken, String linkId) {
+        return take(new LinkKey(authenticatedUser(accessToken), linkId), "link");
+    }
+
+    /**
+     * Drops what was prefetched for the user, it shows links as they were before the change.
+     */
+    void forget(String userId) {
+        if (!enabled || userId == null) {
+            return;
+        }
+        generations.invalidate(userId);
+        prefetched.asMap().keySet().removeIf(key -> key.userId().equals(userId));
+    }
+
+    private String authenticatedUser(String accessToken) {
+        if (!authenticatedTokens.contains(accessToken)) {
+            return null;
+        }
+        var claims = tokenExtractor.extractClaims(accessToken);
+        return claims != null ? claims.principal() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T take(Key key, String kind) {
+        if (!enabled || key.userId() == null) {
+            return null;
+        }
+        var value = (T) prefetched.asMap().remove(key);
+        lookupCounter(kind, value != null ? "hit" : "miss").increment();
+        return value;
+    }
+
+    private <T> void fetch(Key key, String kind, Function<String, T> loader, String token, Object generation) {
+        if (prefetched.getIfPresent(key) != null) {
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            fetchCounter(kind, "skipped").increment();
+            return;
+        }
+        try {
+            var value = loader.apply(token);
+            if (value != null && unchanged(key.userId(), generation)) {
+                prefetched.put(key, value);
+                // a change that came in between the check and the put has to win
+                if (!unchanged(key.userId(), generation)) {
+                    prefetched.asMap().remove(key, value);
+                    return;
+                }
+                fetchCounter(kind, "stored").increment();
+            }
+        } catch (Exception e) {
+            log.debug("Prefetch of {} failed: {}", key, e.getMessage());
+            fetchCounter(kind, "failed").increment();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * No change of the user's links since the fetch was scheduled. A generation that expired in the
+     * meantime counts as changed.
+     */
+    private boolean unchanged(String userId, Object generation) {
+        return generations.getIfPresent(userId) == generation;
+    }
+
+    private Counter lookupCounter(String kind, String result) {
+        return Counter.builder("ui.dashboard.prefetch.lookups")
+                .description("Dashboard pages and link details looked up in the prefetch cache")
+                .tag("kind", kind)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Counter fetchCounter(String kind, String result) {
+        return Counter.builder("ui.dashboard.prefetch.fetches")
+                .description("Background prefetches of dashboard pages and link details")
+                .tag("kind", kind)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run(String token, Object generation);
+    }
+
+    private sealed interface Key permits PageKey, LinkKey {
+        String userId();
+    }
+
+    private record PageKey(String userId, int page, int size, String sort) implements Key {
+    }
+
+    private record LinkKey(String userId, String linkId) implements Key {
+    }
+}
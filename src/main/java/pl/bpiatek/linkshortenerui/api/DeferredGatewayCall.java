@@ -0,0 +1,105 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.ui.Model;
+import org.springframework.web.client.HttpClientErrorException;
+import org.thymeleaf.context.LazyContextVariable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Exposes the result of a gateway call that is still in flight to the template as lazy variables.
+ * <p>
+ * Thymeleaf writes the page as it renders, so everything up to the first use of one of these
+ * variables (the head with its stylesheets, the navbar) is flushed to the browser before waiting
+ * for the call. The response is committed at that point, so failures can no longer redirect:
+ * they are rendered in place through the "error" and "loginRequired" variables instead.
+ */
+class DeferredGatewayCall<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(DeferredGatewayCall.class);
+
+    private final CompletableFuture<T> call;
+    private final Runnable flush;
+    private final T empty;
+    private final Function<Throwable, T> staleFallback;
+    private final String errorMessage;
+
+    private boolean resolved;
+    private T value;
+    private String error;
+    private boolean stale;
+    private boolean loginRequired;
+
+    /**
+     * @param empty         value rendered when the call failed and there is nothing stale to show
+     * @param staleFallback last known value for the failure or null
+     * @param errorMessage  shown when the call failed
+     */
+    DeferredGatewayCall(CompletableFuture<T> call,
+                        Runnable flush,
+                        T empty,
+                        Function<Throwable, T> staleFallback,
+                        String errorMessage) {
+        this.call = call;
+        this.flush = flush;
+        this.empty = empty;
+        this.staleFallback = staleFallback;
+        this.errorMessage = errorMessage;
+    }
+
+    void addTo(Model model, String valueAttribute) {
+        model.addAttribute(valueAttribute, lazy(() -> value));
+        model.addAttribute("error", lazy(() -> error));
+        model.addAttribute("stale", lazy(() -> stale));
+        model.addAttribute("loginRequired", lazy(() -> loginRequired));
+    }
+
+    private <V> LazyContextVariable<V> lazy(Supplier<V> field) {
+        return new LazyContextVariable<>() {
+            @Override
+            protected V loadValue() {
+                resolve();
+                return field.get();
+            }
+        };
+    }
+
+    /**
+     * Runs on the request thread the first time the template needs the data.
+     */
+    private void resolve() {
+        if (resolved) {
+            return;
+        }
+        resolved = true;
+        flush.run();
+
+        try {
+            value = call.join();
+        } catch (CompletionException | CancellationException e) {
+            var cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof HttpClientErrorException clientError && clientError.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+                loginRequired = true;
+                error = "Your session has expired. Please log in again.";
+            } else {
+                log.warn("Deferred gateway call failed: {}", cause.toString());
+                value = staleFallback.apply(cause);
+                stale = value != null;
+                if (!stale) {
+                    error = errorMessage;
+                }
+            }
+        }
+
+        if (value == null) {
+            value = empty;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for identical gateway reads of one user, e.g. a double click on a link or several
+ * tabs reloading the dashboard at once. Callers asking for the same (user, method, URI) while a call
+ * is running wait for it and get the same decoded body, or the same exception. Nothing is kept once
+ * the call is done, that is what {@link DashboardPageCache} and the gateway HTTP cache are for.
+ * <p>
+ * Waiting is a {@link CompletableFuture#join()} outside of any monitor, so a waiting virtual thread
+ * unmounts instead of pinning its carrier.
+ */
+@Component
+class GatewayReadCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(GatewayReadCoalescer.class);
+
+    private final ConcurrentHashMap<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Counter executed;
+    private final Counter coalesced;
+
+    GatewayReadCoalescer(MeterRegistry meterRegistry) {
+        this.executed = readCounter(meterRegistry, "executed");
+        this.coalesced = readCounter(meterRegistry, "coalesced");
+    }
+
+    /**
+     * Runs the GET unless the same one is already running for the user, in which case its result is
+     * shared. The uri has to identify the response completely, query parameters included.
+     * <p>
+     * Joiners get the body fetched with someone else's token, so the user has to be
+     * {@link AuthContext#authenticatedUserId()}: a user id read from an unverified cookie would let a
+     * forged token join the reads of the user it names. Reads without one are never shared.
+     */
+    <T> T get(String userId, String uri, Supplier<T> call) {
+        if (userId == null) {
+            return call.get();
+        }
+
+        var key = new Key(userId, HttpMethod.GET, uri);
+        var ownCall = new CompletableFuture<Object>();
+        var runningCall = inFlight.putIfAbsent(key, ownCall);
+        if (runningCall != null) {
+            log.debug("get(): joining in-flight read of {}", uri);
+            coalesced.increment();
+            return await(runningCall);
+        }
+
+        executed.increment();
+        try {
+            var result = call.get();
+            ownCall.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // an Error must complete the call as well, joiners would wait forever otherwise
+            ownCall.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, ownCall);
+        }
+    }
+
+    /**
+     * Reads started before a change of the user's links would return the old data, later reads must
+     * not join them.
+     */
+    void forget(String userId) {
+        if (userId != null) {
+            inFlight.keySet().removeIf(key -> key.userId().equals(userId));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T await(CompletableFuture<Object> call) {
+        try {
+            return (T) call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static Counter readCounter(MeterRegistry meterRegistry, String mode) {
+        // coalescing ratio: coalesced / (executed + coalesced)
+        return Counter.builder("ui.gateway.reads")
+                .description("Gateway reads by whether they made a call or joined an identical one in flight")
+                .tag("mode", mode)
+                .register(meterRegistry);
+    }
+
+    private record Key(String userId, HttpMethod method, String uri) {
+    }
+}
@@ -0,0 +1,44 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Request and response headers of htmx, see https://htmx.org/reference/#headers.
+ */
+final class Htmx {
+
+    /**
+     * Request mapping condition for requests made by htmx that expect a fragment. History restores
+     * are made by htmx as well but need the full page.
+     */
+    static final String FRAGMENT_REQUEST = "HX-Request=true";
+    static final String NOT_HISTORY_RESTORE = "!HX-History-Restore-Request";
+
+    private Htmx() {
+    }
+
+    /**
+     * Swaps the response into another element than the one the request came from, e.g. an error
+     * alert instead of a table row.
+     */
+    static void retarget(HttpServletResponse response, String selector) {
+        response.setHeader("HX-Retarget", selector);
+        response.setHeader("HX-Reswap", "outerHTML");
+    }
+
+    /**
+     * Triggers an event on the element the request came from once the response has been swapped in,
+     * e.g. to reset a form only when the request did what it was meant to.
+     */
+    static void trigger(HttpServletResponse response, String event) {
+        response.setHeader("HX-Trigger", event);
+    }
+
+    /**
+     * The same URL renders a page or a fragment depending on HX-Request, caches must keep them apart.
+     */
+    static void varyOnRequest(HttpServletResponse response) {
+        response.addHeader(HttpHeaders.VARY, "HX-Request");
+    }
+}
@@ -4,8 +4,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
-import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
 
 @Controller
 class IndexController {
@@ -21,8 +21,10 @@ class IndexController {
     }
 
     @GetMapping("/")
-    public String home(Model model, @CookieValue(value = "jwt", required = false) String jwt) {
-        if (jwt == null || jwt.isBlank()) {
+    public String home(Model model,
+                       @RequestAttribute(name = AuthContext.ATTRIBUTE, required = false) AuthContext auth) {
+        // without a refresh cookie there is nothing to refresh, the visitor is simply anonymous
+        if (auth != null && !auth.hasAccessToken() && auth.hasRefreshToken()) {
             try {
                 var newJwt = tokenRefresher.refreshAccessToken();
                 var email = tokenExtractor.extractEmail(newJwt);
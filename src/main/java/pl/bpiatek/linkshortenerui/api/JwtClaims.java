@@ -0,0 +1,26 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import java.time.Duration;
+import java.time.Instant;
+
+public record JwtClaims(
+        String subject,
+        String userId,
+        String email,
+        Instant expiresAt
+) {
+    /**
+     * Identifier of the user the token was issued for, the gateway puts it in "userId" or "sub".
+     */
+    public String principal() {
+        return userId != null ? userId : subject;
+    }
+
+    /**
+     * True when the token is already expired or will expire within the given skew.
+     * Tokens without an "exp" claim are treated as non-expiring and left to the gateway.
+     */
+    public boolean expiresWithin(Duration skew) {
+        return expiresAt != null && !Instant.now().plus(skew).isBefore(expiresAt);
+    }
+}
@@ -0,0 +1,310 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Exports all links of the user as CSV or NDJSON.
+ * <p>
+ * The gateway pages are walked in order and written out one by one. While page N is written, page
+ * N+1 is already fetched on a virtual thread, so at most two pages are on the heap whatever the
+ * number of links.
+ * <p>
+ * An export may stream for up to dashboard.export.timeout, longer than an access token lives. The
+ * token is refreshed up front while the cookies can still be set, and again with the refresh token
+ * captured then if the gateway rejects it between pages.
+ */
+@Controller
+class LinkExportController {
+
+    private static final Logger log = LoggerFactory.getLogger(LinkExportController.class);
+
+    private static final String CSV_HEADER = "id,linkId,shortUrl,longUrl,title,active,createdAt,updatedAt,totalClicks\n";
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final RestClient restClient;
+    private final BackendApiService backendApi;
+    private final TokenRefresher tokenRefresher;
+    private final ExecutorService gatewayCallExecutor;
+    private final ObjectWriter linkWriter;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final int pageSize;
+    private final Duration timeout;
+
+    LinkExportController(RestClient restClient,
+                         BackendApiService backendApi,
+                         TokenRefresher tokenRefresher,
+                         ExecutorService gatewayCallExecutor,
+                         ObjectMapper objectMapper,
+                         MeterRegistry meterRegistry,
+                         @Value("${dashboard.export.page-size:500}") int pageSize,
+                         @Value("${dashboard.export.timeout:10m}") Duration timeout) {
+        this.restClient = restClient;
+        this.backendApi = backendApi;
+        this.tokenRefresher = tokenRefresher;
+        this.gatewayCallExecutor = gatewayCallExecutor;
+        this.objectMapper = objectMapper;
+        this.linkWriter = objectMapper.writerFor(LinkDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.meterRegistry = meterRegistry;
+        this.pageSize = pageSize;
+        this.timeout = timeout;
+    }
+
+    /**
+     * The token is resolved and the first page fetched on the request thread, so an expired
+     * session or an unavailable gateway still ends in the usual login redirect or error page
+     * instead of a truncated download.
+     */
+    @GetMapping("/dashboard/links/export")
+    ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "csv") String format,
+                                                 HttpServletRequest request) {
+        var ndjson = "ndjson".equalsIgnoreCase(format);
+        var formatTag = ndjson ? "ndjson" : "csv";
+
+        // without a refresh token a token that is still valid is the best there is
+        var accessToken = AuthContext.current().hasRefreshToken()
+                ? backendApi.accessToken(timeout)
+                : backendApi.accessToken();
+        var firstPage = fetchPage(accessToken, 0);
+        var tokens = new ExportTokens(accessToken, AuthContext.current().refreshToken());
+        AsyncRequestTimeout.set(request, timeout);
+
+        StreamingResponseBody body = out -> {
+            var sample = Timer.start(meterRegistry);
+            var outcome = "error";
+            long exported = 0;
+            try {
+                exported = writeAll(out, tokens, firstPage, ndjson);
+                outcome = "success";
+            } finally {
+                var nanos = sample.stop(Timer.builder("ui.dashboard.export")
+                        .description("Time to export all links of a user")
+                        .tag("format", formatTag)
+                        .tag("outcome", outcome)
+                        .register(meterRegistry));
+                Counter.builder("ui.dashboard.export.links")
+                        .description("Links written by the export")
+                        .tag("format", formatTag)
+                        .register(meterRegistry)
+                        .increment(exported);
+                log.info("Exported {} links as {} in {} ms ({} links/s), outcome={}",
+                        exported, formatTag, nanos / 1_000_000,
+                        nanos > 0 ? exported * 1_000_000_000L / nanos : exported, outcome);
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(ndjson ? NDJSON : new MediaType("text", "csv", StandardCharsets.UTF_8))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(ndjson ? "links.ndjson" : "links.csv")
+                        .build()
+                        .toString())
+                .body(body);
+    }
+
+    private long writeAll(OutputStream out, ExportTokens tokens, PageResponse<LinkDto> firstPage, boolean ndjson) throws IOException {
+        var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        var generator = ndjson ? newLineGenerator(writer) : null;
+        if (!ndjson) {
+            writer.write(CSV_HEADER);
+        }
+
+        long exported = 0;
+        var current = firstPage;
+        while (true) {
+            // ask for the next page before writing this one, the gateway works while we write
+            var nextPage = current.page() + 1;
+            var next = hasNext(current)
+                    ? CompletableFuture.supplyAsync(() -> fetchPage(tokens, nextPage), gatewayCallExecutor)
+                    : null;
+            try {
+                for (var link : current.content()) {
+                    if (ndjson) {
+                        linkWriter.writeValue(generator, link);
+                        generator.writeRaw('\n');
+                    } else {
+                        writeCsvRow(writer, link);
+                    }
+                }
+                exported += current.content().size();
+                if (generator != null) {
+                    generator.flush();
+                }
+                writer.flush();
+            } catch (IOException | RuntimeException e) {
+                if (next != null) {
+                    next.cancel(false);
+                }
+                throw e;
+            }
+
+            if (next == null) {
+                return exported;
+            }
+            current = join(next);
+        }
+    }
+
+    private boolean hasNext(PageResponse<LinkDto> page) {
+        // an empty page ends the export even if the gateway's total changed underneath us
+        return !page.isEmpty() && !page.isLast();
+    }
+
+    /**
+     * Pages after the first one are fetched once the response is committed, a rejected token is
+     * refreshed here without the cookies. Pages are fetched one at a time, so tokens never race.
+     */
+    private PageResponse<LinkDto> fetchPage(ExportTokens tokens, int page) {
+        try {
+            return fetchPage(tokens.accessToken, page);
+        } catch (HttpClientErrorException.Unauthorized e) {
+            if (tokens.refreshToken == null || tokens.refreshToken.isBlank()) {
+                throw e;
+            }
+            log.debug("fetchPage(): access token rejected during the export, refreshing");
+            var refreshed = tokenRefresher.refresh(tokens.refreshToken);
+            tokens.accessToken = refreshed.accessToken();
+            tokens.refreshToken = refreshed.refreshToken();
+            return fetchPage(tokens.accessToken, page);
+        }
+    }
+
+    private PageResponse<LinkDto> fetchPage(String accessToken, int page) {
+        var linkPage = restClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/dashboard/links")
+                        .queryParam("page", page)
+                        .queryParam("size", pageSize)
+                        .queryParam("sort", "created_at,asc")
+                        .build())
+                .header("Authorization", "Bearer " + accessToken)
+                .retrieve()
+                .body(new ParameterizedTypeReference<PageResponse<LinkDto>>() {});
+        if (linkPage == null || linkPage.content() == null) {
+            return new PageResponse<>(List.of(), page, pageSize, 0, 0);
+        }
+        return linkPage;
+    }
+
+    private static PageResponse<LinkDto> join(CompletableFuture<PageResponse<LinkDto>> next) {
+        try {
+            return next.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private JsonGenerator newLineGenerator(Writer writer) throws IOException {
+        var generator = objectMapper.getFactory().createGenerator(writer);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    private static void writeCsvRow(Writer writer, LinkDto link) throws IOException {
+        writer.write(String.valueOf(link.id()));
+        writer.write(',');
+        writeCsvField(writer, link.linkId());
+        writer.write(',');
+        writeCsvField(writer, link.shortUrl());
+        writer.write(',');
+        writeCsvField(writer, link.longUrl());
+        writer.write(',');
+        writeCsvField(writer, link.title());
+        writer.write(',');
+        writer.write(link.isActive() ? "true" : "false");
+        writer.write(',');
+        writer.write(link.createdAt() != null ? link.createdAt().toString() : "");
+        writer.write(',');
+        writer.write(link.updatedAt() != null ? link.updatedAt().toString() : "");
+        writer.write(',');
+        writer.write(Integer.toString(link.totalClicks()));
+        writer.write('\n');
+    }
+
+    /**
+     * RFC 4180 quoting: fields with separators, quotes or line breaks are quoted, quotes doubled.
+     * Titles and URLs are user input, a field a spreadsheet would run as a formula gets a leading
+     * apostrophe.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (isFormula(value)) {
+            value = "'" + value;
+        }
+        var needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            var c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static boolean isFormula(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        var first = value.charAt(0);
+        return first == '=' || first == '+' || first == '-' || first == '@' || first == '\t' || first == '\r';
+    }
+
+    /**
+     * Tokens of one export, replaced when they are refreshed during the export.
+     */
+    private static final class ExportTokens {
+        volatile String accessToken;
+        volatile String refreshToken;
+
+        ExportTokens(String accessToken, String refreshToken) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+        }
+    }
+}
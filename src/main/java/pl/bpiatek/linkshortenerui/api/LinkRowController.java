@@ -0,0 +1,245 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
+import pl.bpiatek.linkshortenerui.dto.CreateLinkRequest;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.UpdateLinkActiveRequest;
+import pl.bpiatek.linkshortenerui.dto.UpdateLinkRequest;
+import pl.bpiatek.linkshortenerui.exception.BackendErrorMapper;
+
+import java.time.Instant;
+
+/**
+ * Dashboard row mutations made with htmx. Each one answers with the fragment that changed, a single
+ * row or nothing, instead of a redirect and a render of the whole dashboard. Errors are rendered as
+ * the alerts and retargeted there. Requests without htmx are handled by {@link DashboardController}.
+ */
+@Controller
+class LinkRowController {
+
+    private final BackendApiService backendApi;
+    private final RestClient restClient;
+    private final BackendErrorMapper errorMapper;
+    private final DashboardPageCache pageCache;
+    private final GatewayReadCoalescer readCoalescer;
+
+    LinkRowController(BackendApiService backendApi,
+                      RestClient restClient,
+                      BackendErrorMapper errorMapper,
+                      DashboardPageCache pageCache,
+                      GatewayReadCoalescer readCoalescer) {
+        this.backendApi = backendApi;
+        this.restClient = restClient;
+        this.errorMapper = errorMapper;
+        this.pageCache = pageCache;
+        this.readCoalescer = readCoalescer;
+    }
+
+    /**
+     * Responds with the new row only, prepended to the table by the browser instead of a redirect
+     * and a second gateway call for the whole page.
+     */
+    @PostMapping(value = "/dashboard/links", headers = Htmx.FRAGMENT_REQUEST)
+    String createLinkRow(
+            @RequestParam String longUrl,
+            @RequestParam(required = false) String shortUrl,
+            @RequestParam(defaultValue = "false") boolean isActive,
+            @RequestParam(required = false) String title,
+            Model model,
+            HttpServletResponse response
+    ) {
+        var request = new CreateLinkRequest(longUrl, shortUrl, isActive, title);
+
+        try {
+            var created = backendApi.execute(userJwt -> restClient.post()
+                    .uri("/links")
+                    .header("Authorization", "Bearer " + userJwt)
+                    .body(request)
+                    .retrieve()
+                    .body(LinkDto.class)
+            );
+
+            model.addAttribute("link", createdRow(request, created));
+            // errors are answered with 200 as well, only a created link clears the form
+            Htmx.trigger(response, "link-created");
+            return "link-row :: row";
+        } catch (RestClientResponseException e) {
+            model.addAttribute("error", errorMapper.message(e));
+        } catch (Exception e) {
+            model.addAttribute("error", "An unexpected error occurred.");
+        } finally {
+            pageCache.invalidate(AuthContext.current().authenticatedUserId());
+        }
+
+        return alerts(response);
+    }
+
+    /**
+     * The gateway may answer a create with the short and long URL only, the rest of the row is
+     * filled in from the request. Without an id the row has no actions until the next page load.
+     */
+    private static LinkDto createdRow(CreateLinkRequest request, LinkDto created) {
+        if (created != null && created.linkId() != null) {
+            return created;
+        }
+        return new LinkDto(
+                null,
+                null,
+                AuthContext.current().userId(),
+                created != null && created.shortUrl() != null ? created.shortUrl() : request.shortUrl(),
+                created != null && created.longUrl() != null ? created.longUrl() : request.longUrl(),
+                request.title(),
+                Boolean.TRUE.equals(request.isActive()),
+                Instant.now(),
+                null,
+                0);
+    }
+
+    /**
+     * Activates or deactivates a link, the updated row replaces itself.
+     */
+    @PostMapping(value = "/dashboard/links/{id}/active", headers = Htmx.FRAGMENT_REQUEST)
+    String setLinkActiveRow(
+            @PathVariable Long id,
+            @RequestParam boolean isActive,
+            Model model,
+            HttpServletResponse response
+    ) {
+        return updatedRow(id, new UpdateLinkActiveRequest(isActive), model, response);
+    }
+
+    /**
+     * The row turns into an inline form instead of navigating to the edit page.
+     */
+    @GetMapping(value = "/dashboard/links/{id}/edit", headers = Htmx.FRAGMENT_REQUEST)
+    String editLinkRow(@PathVariable Long id, Model model, HttpServletResponse response) {
+        return linkRow(id, "link-row :: edit", model, response);
+    }
+
+    /**
+     * Cancelling an inline edit swaps the form back to the row as it is now.
+     */
+    @GetMapping(value = "/dashboard/links/{id}/row", headers = Htmx.FRAGMENT_REQUEST)
+    String linkRow(@PathVariable Long id, Model model, HttpServletResponse response) {
+        return linkRow(id, "link-row :: row", model, response);
+    }
+
+    private String linkRow(Long id, String fragment, Model model, HttpServletResponse response) {
+        try {
+            model.addAttribute("link", backendApi.execute(jwt -> fetchLink(jwt, id)));
+            return fragment;
+        } catch (HttpClientErrorException.NotFound e) {
+            model.addAttribute("error", "Link not found.");
+        } catch (RestClientResponseException e) {
+            model.addAttribute("error", errorMapper.message(e));
+        } catch (Exception e) {
+            model.addAttribute("error", "An unexpected error occurred.");
+        }
+
+        return alerts(response);
+    }
+
+    /**
+     * Saves an inline edit and swaps the form with the updated row. Errors go to the alerts and
+     * leave the form as it was typed.
+     */
+    @PostMapping(value = "/dashboard/links/{id}/edit", headers = Htmx.FRAGMENT_REQUEST)
+    String updateLinkRow(
+            @PathVariable Long id,
+            @RequestParam String longUrl,
+            @RequestParam(defaultValue = "false") boolean isActive,
+            @RequestParam(required = false) String title,
+            Model model,
+            HttpServletResponse response
+    ) {
+        return updatedRow(id, new UpdateLinkRequest(longUrl, isActive, title), model, response);
+    }
+
+    /**
+     * Deletes a link, the browser swaps the row with the empty "removed" fragment.
+     */
+    @PostMapping(value = "/dashboard/links/{id}/delete", headers = Htmx.FRAGMENT_REQUEST)
+    String deleteLinkRow(@PathVariable Long id, Model model, HttpServletResponse response) {
+        try {
+            backendApi.execute(jwt -> restClient.delete()
+                    .uri("/links/{id}", id)
+                    .header("Authorization", "Bearer " + jwt)
+                    .retrieve()
+                    .toBodilessEntity()
+            );
+            return "link-row :: removed";
+        } catch (RestClientResponseException e) {
+            model.addAttribute("error", errorMapper.message(e));
+        } catch (Exception e) {
+            model.addAttribute("error", "Failed to delete link.");
+        } finally {
+            pageCache.invalidate(AuthContext.current().authenticatedUserId());
+        }
+
+        return alerts(response);
+    }
+
+    /**
+     * PATCHes the link and renders the row it answers with.
+     */
+    private String updatedRow(Long id, Object patch, Model model, HttpServletResponse response) {
+        try {
+            model.addAttribute("link", backendApi.execute(jwt -> patchLink(jwt, id, patch)));
+            return "link-row :: row";
+        } catch (RestClientResponseException e) {
+            model.addAttribute("error", errorMapper.message(e));
+        } catch (Exception e) {
+            model.addAttribute("error", "An unexpected error occurred.");
+        } finally {
+            pageCache.invalidate(AuthContext.current().authenticatedUserId());
+        }
+
+        return alerts(response);
+    }
+
+    /**
+     * The PATCH response is read as the updated link. Only when the gateway answers without one is
+     * the link fetched again.
+     */
+    private LinkDto patchLink(String jwt, Long id, Object patch) {
+        var updated = restClient.patch()
+                .uri("/links/{id}", id)
+                .header("Authorization", "Bearer " + jwt)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(patch)
+                .retrieve()
+                .body(LinkDto.class);
+        if (updated != null && updated.linkId() != null) {
+            return updated;
+        }
+        // not coalesced: a read that started before this PATCH would answer with the old link
+        return restClient.get()
+                .uri("/links/{id}", id)
+                .header("Authorization", "Bearer " + jwt)
+                .retrieve()
+                .body(LinkDto.class);
+    }
+
+    private LinkDto fetchLink(String jwt, Long id) {
+        return readCoalescer.get(AuthContext.current().authenticatedUserId(), "/links/" + id, () -> restClient.get()
+                .uri("/links/{id}", id)
+                .header("Authorization", "Bearer " + jwt)
+                .retrieve()
+                .body(LinkDto.class));
+    }
+
+    private static String alerts(HttpServletResponse response) {
+        Htmx.retarget(response, "#alerts");
+        return "dashboard :: alerts";
+    }
+}
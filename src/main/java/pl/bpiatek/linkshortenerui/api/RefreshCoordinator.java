@@ -0,0 +1,121 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import pl.bpiatek.linkshortenerui.dto.TokenResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide single-flight registry for refresh token exchanges.
+ * <p>
+ * The gateway rotates refresh tokens, so two parallel requests (several tabs, htmx calls)
+ * exchanging the same refresh token would race and the loser would get logged out.
+ * Concurrent callers holding the same refresh token share one in-flight exchange, and
+ * the result is kept for a short window so requests that arrive right after it finished
+ * (still carrying the old cookie) reuse it instead of presenting an already rotated token.
+ */
+@Component
+class RefreshCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(RefreshCoordinator.class);
+
+    private final ConcurrentHashMap<String, CompletableFuture<TokenResponse>> inFlight = new ConcurrentHashMap<>();
+    private final Cache<String, TokenResponse> recentExchanges;
+    private final Counter executed;
+    private final Counter coalesced;
+    private final Counter reused;
+
+    RefreshCoordinator(MeterRegistry meterRegistry,
+                       @Value("${auth.token.refresh-reuse-window:5s}") Duration reuseWindow) {
+        this.recentExchanges = Caffeine.newBuilder()
+                .expireAfterWrite(reuseWindow)
+                .maximumSize(10_000)
+                .build();
+        this.executed = exchangeCounter(meterRegistry, "executed");
+        this.coalesced = exchangeCounter(meterRegistry, "coalesced");
+        this.reused = exchangeCounter(meterRegistry, "reused");
+    }
+
+    /**
+     * Runs the exchange for the given refresh token unless one is already running or has
+     * just finished, in which case its result (or failure) is shared.
+     */
+    TokenResponse refresh(String refreshToken, Supplier<TokenResponse> exchange) {
+        var key = hash(refreshToken);
+
+        var recent = recentExchanges.getIfPresent(key);
+        if (recent != null) {
+            log.debug("refresh(): reusing tokens from a just finished exchange");
+            reused.increment();
+            return recent;
+        }
+
+        var ownExchange = new CompletableFuture<TokenResponse>();
+        var runningExchange = inFlight.putIfAbsent(key, ownExchange);
+        if (runningExchange != null) {
+            log.debug("refresh(): joining in-flight exchange");
+            coalesced.increment();
+            return await(runningExchange);
+        }
+
+        executed.increment();
+        try {
+            var tokens = exchange.get();
+            if (tokens == null) {
+                throw new IllegalStateException("Gateway returned an empty refresh response");
+            }
+            // publish before leaving the in-flight map so late arrivals always find a result
+            recentExchanges.put(key, tokens);
+            ownExchange.complete(tokens);
+            return tokens;
+        } catch (RuntimeException e) {
+            ownExchange.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, ownExchange);
+        }
+    }
+
+    private static TokenResponse await(CompletableFuture<TokenResponse> exchange) {
+        try {
+            return exchange.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static String hash(String refreshToken) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256")
+                    .digest(refreshToken.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static Counter exchangeCounter(MeterRegistry meterRegistry, String mode) {
+        return Counter.builder("ui.auth.refresh.exchanges")
+                .description("Refresh token exchanges by how they were served")
+                .tag("mode", mode)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,37 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Render is the time from the handler returning a view until the view has been written.
+ */
+class RenderTimingInterceptor implements HandlerInterceptor {
+
+    private final boolean headerEnabled;
+
+    RenderTimingInterceptor(boolean headerEnabled) {
+        this.headerEnabled = headerEnabled;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler, ModelAndView modelAndView) {
+        if (modelAndView == null || !(request.getAttribute(RequestTimings.ATTRIBUTE) instanceof RequestTimings timings)) {
+            return;
+        }
+        if (headerEnabled && !response.isCommitted()) {
+            // in case the page outgrows the buffer, replaced with the full header afterwards
+            response.setHeader(ServerTimingFilter.SERVER_TIMING, timings.serverTiming());
+        }
+        timings.renderStarted();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(RequestTimings.ATTRIBUTE) instanceof RequestTimings timings) {
+            timings.renderFinished();
+        }
+    }
+}
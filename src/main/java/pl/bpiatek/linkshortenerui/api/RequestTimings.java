@@ -0,0 +1,130 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time of one request went: gateway calls, token refreshes and rendering the view.
+ * Created by {@link ServerTimingFilter} and stored as a request attribute, filled in by
+ * {@link BackendApiService}, {@link TokenRefresher} and {@link RenderTimingInterceptor}.
+ * <p>
+ * Gateway calls started in parallel on other threads are added up, so the gateway phase can be
+ * longer than the request.
+ */
+final class RequestTimings {
+
+    static final String ATTRIBUTE = "pl.bpiatek.linkshortenerui.RequestTimings";
+
+    // outside of a request, e.g. prefetches after the response, there is nothing to report to
+    private static final RequestTimings NOT_TIMED = new RequestTimings(0, false);
+
+    private final long startNanos;
+    private final boolean timed;
+    private final AtomicLong gatewayNanos = new AtomicLong();
+    private final AtomicLong gatewayCalls = new AtomicLong();
+    private final AtomicLong refreshNanos = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private volatile long renderStartNanos = -1;
+    private volatile long renderNanos = -1;
+
+    RequestTimings(long startNanos) {
+        this(startNanos, true);
+    }
+
+    private RequestTimings(long startNanos, boolean timed) {
+        this.startNanos = startNanos;
+        this.timed = timed;
+    }
+
+    /**
+     * Timings of the request bound to the current thread. Capture it before handing work to another thread.
+     */
+    static RequestTimings current() {
+        var attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return NOT_TIMED;
+        }
+        var timings = attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        return timings instanceof RequestTimings requestTimings ? requestTimings : NOT_TIMED;
+    }
+
+    void gateway(long callStartNanos) {
+        if (timed) {
+            gatewayNanos.addAndGet(System.nanoTime() - callStartNanos);
+            gatewayCalls.incrementAndGet();
+        }
+    }
+
+    void refresh(long refreshStartNanos) {
+        if (timed) {
+            refreshNanos.addAndGet(System.nanoTime() - refreshStartNanos);
+            refreshes.incrementAndGet();
+        }
+    }
+
+    void renderStarted() {
+        renderStartNanos = System.nanoTime();
+    }
+
+    void renderFinished() {
+        var start = renderStartNanos;
+        if (start >= 0) {
+            renderNanos = System.nanoTime() - start;
+        }
+    }
+
+    long gatewayCalls() {
+        return gatewayCalls.get();
+    }
+
+    long gatewayNanos() {
+        return gatewayNanos.get();
+    }
+
+    long refreshes() {
+        return refreshes.get();
+    }
+
+    long refreshNanos() {
+        return refreshNanos.get();
+    }
+
+    /**
+     * Render time, -1 when no view was rendered or it has not finished yet.
+     */
+    long renderNanos() {
+        return renderNanos;
+    }
+
+    /**
+     * The W3C Server-Timing header value for what has been measured so far, e.g.
+     * {@code gateway;dur=41.2;desc="2 calls", render;dur=6.3, total;dur=52.8}.
+     */
+    String serverTiming() {
+        var header = new StringBuilder(96);
+        var calls = gatewayCalls.get();
+        if (calls > 0) {
+            metric(header, "gateway", gatewayNanos.get());
+            header.append(";desc=\"").append(calls).append(calls == 1 ? " call\"" : " calls\"");
+        }
+        if (refreshes.get() > 0) {
+            metric(header, "refresh", refreshNanos.get());
+        }
+        var render = renderNanos;
+        if (render >= 0) {
+            metric(header, "render", render);
+        }
+        metric(header, "total", System.nanoTime() - startNanos);
+        return header.toString();
+    }
+
+    private static void metric(StringBuilder header, String name, long nanos) {
+        if (!header.isEmpty()) {
+            header.append(", ");
+        }
+        header.append(name).append(";dur=").append(String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0));
+    }
+}
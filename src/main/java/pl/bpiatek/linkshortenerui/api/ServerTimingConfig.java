@@ -0,0 +1,24 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * The render phase of {@link ServerTimingFilter}, measured by {@link RenderTimingInterceptor}.
+ */
+@Configuration
+class ServerTimingConfig implements WebMvcConfigurer {
+
+    private final boolean headerEnabled;
+
+    ServerTimingConfig(@Value("${ui.server-timing.enabled:false}") boolean headerEnabled) {
+        this.headerEnabled = headerEnabled;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new RenderTimingInterceptor(headerEnabled));
+    }
+}
@@ -0,0 +1,222 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the gateway, refresh and render phases of every request as ui.request.phase and, with
+ * ui.server-timing.enabled, sends them to the browser as a Server-Timing header, where devtools
+ * show them next to the network timings. Off by default, it tells anyone how long our gateway takes.
+ * <p>
+ * The header has to go out before the body, so while it is enabled the response buffer is raised to
+ * ui.server-timing.buffer-size and flushes are held back until the filter is done: Thymeleaf flushes
+ * at the end of every render, which would commit the response before the render phase is known.
+ * Pages that flush early (dashboard.early-flush) are sent in one piece while the header is on, pages
+ * that outgrow the buffer send the phases known before rendering. Async requests (exports) flush
+ * normally once the handler has started them.
+ */
+@Component
+class ServerTimingFilter extends OncePerRequestFilter {
+
+    static final String SERVER_TIMING = "Server-Timing";
+
+    private final boolean headerEnabled;
+    private final int bufferSize;
+    private final Timer gateway;
+    private final Timer refresh;
+    private final Timer render;
+
+    ServerTimingFilter(MeterRegistry meterRegistry,
+                       @Value("${ui.server-timing.enabled:false}") boolean headerEnabled,
+                       @Value("${ui.server-timing.buffer-size:256KB}") DataSize bufferSize) {
+        this.headerEnabled = headerEnabled;
+        this.bufferSize = (int) bufferSize.toBytes();
+        this.gateway = phaseTimer(meterRegistry, "gateway");
+        this.refresh = phaseTimer(meterRegistry, "refresh");
+        this.render = phaseTimer(meterRegistry, "render");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        var timings = new RequestTimings(System.nanoTime());
+        request.setAttribute(RequestTimings.ATTRIBUTE, timings);
+        if (!headerEnabled) {
+            try {
+                filterChain.doFilter(request, response);
+            } finally {
+                record(timings);
+            }
+            return;
+        }
+
+        if (response.getBufferSize() < bufferSize) {
+            response.setBufferSize(bufferSize);
+        }
+        var deferred = new DeferredFlushResponse(response);
+        try {
+            filterChain.doFilter(request, deferred);
+        } finally {
+            record(timings);
+            deferred.stopDeferring();
+            if (!response.isCommitted()) {
+                response.setHeader(SERVER_TIMING, timings.serverTiming());
+            }
+            // a sync response is completed by the container, an async one keeps going and wanted its head out
+            if (deferred.flushRequested() && request.isAsyncStarted()) {
+                response.flushBuffer();
+            }
+        }
+    }
+
+    private void record(RequestTimings timings) {
+        if (timings.gatewayCalls() > 0) {
+            gateway.record(timings.gatewayNanos(), TimeUnit.NANOSECONDS);
+        }
+        if (timings.refreshes() > 0) {
+            refresh.record(timings.refreshNanos(), TimeUnit.NANOSECONDS);
+        }
+        if (timings.renderNanos() >= 0) {
+            render.record(timings.renderNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static Timer phaseTimer(MeterRegistry meterRegistry, String phase) {
+        return Timer.builder("ui.request.phase")
+                .description("Time a request spent in a phase, gateway calls of one request are added up")
+                .tag("phase", phase)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Holds back flushes and closes of the body while the request is in the filter, the container's
+     * buffer keeps what has been written. Once the filter is done they are passed on, async handlers
+     * keep writing to this response after that.
+     */
+    private static final class DeferredFlushResponse extends HttpServletResponseWrapper {
+
+        private volatile boolean deferring = true;
+        private volatile boolean flushRequested;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        DeferredFlushResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        void stopDeferring() {
+            deferring = false;
+        }
+
+        boolean flushRequested() {
+            return flushRequested;
+        }
+
+        /**
+         * Whether a flush or close has to be held back, remembered to be made up for later.
+         */
+        private boolean deferred() {
+            if (deferring) {
+                flushRequested = true;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (!deferred()) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new DeferredFlushOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(super.getWriter()) {
+                    @Override
+                    public void flush() {
+                        if (!deferred()) {
+                            super.flush();
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        if (!deferred()) {
+                            super.close();
+                        }
+                    }
+                };
+            }
+            return writer;
+        }
+
+        private final class DeferredFlushOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream delegate;
+
+            DeferredFlushOutputStream(ServletOutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                delegate.write(b);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                delegate.write(buffer, offset, length);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (!deferred()) {
+                    delegate.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!deferred()) {
+                    delegate.close();
+                }
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                delegate.setWriteListener(writeListener);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import pl.bpiatek.linkshortenerui.dto.DashboardLinkResponse;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.time.Duration;
+
+/**
+ * Last successfully fetched dashboard pages and link details per user, served (marked as stale)
+ * when the gateway is unavailable or the circuit breaker is open. The gateway can't check the token
+ * then, so entries are only kept and served for {@link AuthContext#authenticatedUserId()}.
+ */
+@Component
+class StaleFallbackCache {
+
+    private final MeterRegistry meterRegistry;
+    private final Cache<PageKey, PageResponse<LinkDto>> pages;
+    private final Cache<LinkKey, DashboardLinkResponse> links;
+
+    StaleFallbackCache(MeterRegistry meterRegistry,
+                       @Value("${dashboard.stale.ttl:1h}") Duration ttl,
+                       @Value("${dashboard.stale.max-entries:2000}") long maxEntries) {
+        this.meterRegistry = meterRegistry;
+        this.pages = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxEntries)
+                .build();
+        this.links = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    void rememberPage(String userId, int page, int size, String sort, PageResponse<LinkDto> linkPage) {
+        if (userId != null && linkPage != null) {
+            pages.put(new PageKey(userId, page, size, sort), linkPage);
+        }
+    }
+
+    PageResponse<LinkDto> stalePage(String userId, int page, int size, String sort) {
+        var stale = userId != null ? pages.getIfPresent(new PageKey(userId, page, size, sort)) : null;
+        countFallback("dashboard", stale != null);
+        return stale;
+    }
+
+    void rememberLink(String userId, String linkId, DashboardLinkResponse link) {
+        if (userId != null && link != null) {
+            links.put(new LinkKey(userId, linkId), link);
+        }
+    }
+
+    DashboardLinkResponse staleLink(String userId, String linkId) {
+        var stale = userId != null ? links.getIfPresent(new LinkKey(userId, linkId)) : null;
+        countFallback("link-details", stale != null);
+        return stale;
+    }
+
+    private void countFallback(String view, boolean hit) {
+        Counter.builder("ui.gateway.fallback")
+                .description("Stale data served while the gateway was unavailable")
+                .tag("view", view)
+                .tag("result", hit ? "hit" : "miss")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private record PageKey(String userId, int page, int size, String sort) {
+    }
+
+    private record LinkKey(String userId, String linkId) {
+    }
+}
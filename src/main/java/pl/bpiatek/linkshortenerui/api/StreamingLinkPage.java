@@ -0,0 +1,239 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A dashboard page decoded lazily from the open gateway response.
+ * <p>
+ * Rows of the "content" array are read one at a time while the template iterates over them, so
+ * only the row being rendered is on the heap, whatever the page size. The paging fields may come
+ * before or after "content" in the JSON, reading them after the table was rendered is free, reading
+ * them earlier skips the remaining rows. The object can be iterated once and must be closed after
+ * rendering to release the gateway connection.
+ * <p>
+ * Exposes the same properties as {@link pl.bpiatek.linkshortenerui.dto.PageResponse}, so dashboard.html
+ * renders either of them.
+ */
+class StreamingLinkPage implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingLinkPage.class);
+
+    private enum State { IN_CONTENT, AFTER_CONTENT, DONE }
+
+    private final ClientHttpResponse response;
+    private final JsonParser parser;
+    private final ObjectReader linkReader;
+    private final Runnable flush;
+    private final int flushEvery;
+    private final Rows rows = new Rows();
+
+    private State state = State.AFTER_CONTENT;
+    private int page;
+    private int size;
+    private long totalElements;
+    private int totalPages;
+
+    private StreamingLinkPage(ClientHttpResponse response,
+                              JsonParser parser,
+                              ObjectReader linkReader,
+                              Runnable flush,
+                              int flushEvery) {
+        this.response = response;
+        this.parser = parser;
+        this.linkReader = linkReader;
+        this.flush = flush;
+        this.flushEvery = flushEvery;
+    }
+
+    /**
+     * Reads the response up to the first row. The response is closed if that fails.
+     *
+     * @param flush      called every {@code flushEvery} rendered rows to push them to the browser
+     */
+    static StreamingLinkPage open(ClientHttpResponse response,
+                                  ObjectMapper objectMapper,
+                                  Runnable flush,
+                                  int flushEvery) throws IOException {
+        try {
+            var parser = objectMapper.getFactory().createParser(response.getBody());
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object from /dashboard/links");
+            }
+            var linkPage = new StreamingLinkPage(response, parser, objectMapper.readerFor(LinkDto.class), flush, flushEvery);
+            linkPage.readFields();
+            return linkPage;
+        } catch (IOException | RuntimeException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    public Rows getContent() {
+        return rows;
+    }
+
+    public int getPage() {
+        readRemainingFields();
+        return page;
+    }
+
+    public int getSize() {
+        readRemainingFields();
+        return size;
+    }
+
+    public long getTotalElements() {
+        readRemainingFields();
+        return totalElements;
+    }
+
+    public int getTotalPages() {
+        readRemainingFields();
+        return totalPages;
+    }
+
+    public boolean isFirst() {
+        return getPage() == 0;
+    }
+
+    public boolean isLast() {
+        return getPage() >= getTotalPages() - 1;
+    }
+
+    public boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    @Override
+    public void close() {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            log.debug("Failed to close dashboard links parser", e);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Reads top-level fields until the content array starts or the object ends.
+     */
+    private void readFields() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            var name = parser.currentName();
+            var value = parser.nextToken();
+            switch (name) {
+                case "content" -> {
+                    if (value == JsonToken.START_ARRAY) {
+                        state = State.IN_CONTENT;
+                        return;
+                    }
+                    parser.skipChildren();
+                }
+                case "page" -> page = parser.getIntValue();
+                case "size" -> size = parser.getIntValue();
+                case "totalElements" -> totalElements = parser.getLongValue();
+                case "totalPages" -> totalPages = parser.getIntValue();
+                default -> parser.skipChildren();
+            }
+        }
+        if (token != JsonToken.END_OBJECT) {
+            throw new IOException("Unexpected token " + token + " in /dashboard/links response");
+        }
+        state = State.DONE;
+    }
+
+    private void readRemainingFields() {
+        if (state == State.DONE) {
+            return;
+        }
+        try {
+            if (state == State.IN_CONTENT) {
+                rows.skipRemaining();
+            }
+            readFields();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Single-pass view of the content array.
+     */
+    class Rows implements Iterable<LinkDto> {
+
+        private final Iterator<LinkDto> iterator = new RowIterator();
+        private LinkDto next;
+        private int read;
+
+        @Override
+        public Iterator<LinkDto> iterator() {
+            return iterator;
+        }
+
+        public boolean isEmpty() {
+            return read == 0 && !iterator.hasNext();
+        }
+
+        private void skipRemaining() throws IOException {
+            next = null;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new IOException("Truncated /dashboard/links response");
+                }
+                parser.skipChildren();
+            }
+            state = State.AFTER_CONTENT;
+        }
+
+        private class RowIterator implements Iterator<LinkDto> {
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) {
+                    return true;
+                }
+                if (state != State.IN_CONTENT) {
+                    return false;
+                }
+                try {
+                    if (parser.nextToken() == JsonToken.END_ARRAY) {
+                        state = State.AFTER_CONTENT;
+                        return false;
+                    }
+                    next = linkReader.readValue(parser);
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public LinkDto next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var link = next;
+                next = null;
+                if (++read % flushEvery == 0) {
+                    flush.run();
+                }
+                return link;
+            }
+        }
+    }
+}
@@ -1,32 +1,162 @@
 package pl.bpiatek.linkshortenerui.api;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.stereotype.Component;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
 
 @Component
 public class TokenExtractor {
 
+    private static final int MAX_CACHED_TOKENS = 10_000;
+    // Access tokens live for 15 minutes (cookie max-age 900), no point keeping their claims longer
+    private static final Duration CLAIMS_TTL = Duration.ofMinutes(15);
+
+    private static final int[] BASE64URL = base64UrlAlphabet();
+
     private final ObjectMapper objectMapper;
+    private final Cache<String, JwtClaims> claimsCache;
 
     TokenExtractor(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
+        this.claimsCache = Caffeine.newBuilder()
+                .maximumSize(MAX_CACHED_TOKENS)
+                .expireAfterWrite(CLAIMS_TTL)
+                .build();
     }
 
     public String extractEmail(String jwt) {
-        try {
-            var parts = jwt.split("\\.");
-            if (parts.length < 2) {
+        var claims = extractClaims(jwt);
+        return claims != null ? claims.email() : null;
+    }
+
+    /**
+     * Decodes the payload of the token without verifying the signature (the gateway does that).
+     * Parsed claims are cached by the whole token, so repeated lookups don't decode the payload again.
+     * Not by the signature alone: a forged payload next to a real signature would poison the claims of
+     * the real token.
+     *
+     * @return parsed claims or null if the token is not a readable JWT
+     */
+    public JwtClaims extractClaims(String jwt) {
+        if (jwt == null || jwt.isBlank()) {
+            return null;
+        }
+
+        var payloadStart = jwt.indexOf('.') + 1;
+        if (payloadStart == 0) {
+            return null;
+        }
+        var payloadEnd = jwt.indexOf('.', payloadStart);
+        if (payloadEnd < 0) {
+            payloadEnd = jwt.length();
+        }
+
+        var claims = claimsCache.getIfPresent(jwt);
+        if (claims == null) {
+            claims = parseClaims(jwt, payloadStart, payloadEnd);
+            if (claims != null) {
+                claimsCache.put(jwt, claims);
+            }
+        }
+        return claims;
+    }
+
+    /**
+     * Reads the claims straight from the decoded payload bytes with a streaming parser,
+     * skipping everything that is not needed instead of building a JSON tree.
+     */
+    private JwtClaims parseClaims(String jwt, int payloadStart, int payloadEnd) {
+        var payload = decodeBase64Url(jwt, payloadStart, payloadEnd);
+        if (payload == null) {
+            return null;
+        }
+
+        try (var parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
                 return null;
             }
 
-            var payloadJson = new String(Base64.getUrlDecoder().decode(parts[1]));
-            var claims = objectMapper.readTree(payloadJson);
+            String subject = null;
+            String userId = null;
+            String email = null;
+            Instant expiresAt = null;
 
-            return claims.has("email") ? claims.get("email").asText() : null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var name = parser.currentName();
+                var value = parser.nextToken();
+                switch (name) {
+                    case "sub" -> subject = scalarText(parser, value);
+                    case "userId" -> userId = scalarText(parser, value);
+                    case "email" -> email = scalarText(parser, value);
+                    case "exp" -> expiresAt = value.isNumeric() ? Instant.ofEpochSecond(parser.getLongValue()) : null;
+                    default -> parser.skipChildren();
+                }
+            }
+
+            return new JwtClaims(subject, userId, email, expiresAt);
         } catch (Exception e) {
             return null;
         }
     }
+
+    /**
+     * Decodes the base64url characters between start and end straight from the token, so only the
+     * payload gets a byte array and not the whole token with its signature. Padding is optional.
+     *
+     * @return decoded bytes or null if the range is not valid base64url
+     */
+    static byte[] decodeBase64Url(String value, int start, int end) {
+        while (end > start && value.charAt(end - 1) == '=') {
+            end--;
+        }
+        var length = end - start;
+        if (length % 4 == 1) {
+            return null;
+        }
+
+        var decoded = new byte[length / 4 * 3 + Math.max(length % 4 - 1, 0)];
+        var bits = 0;
+        var pendingBits = 0;
+        var position = 0;
+        for (var i = start; i < end; i++) {
+            var c = value.charAt(i);
+            var sextet = c < BASE64URL.length ? BASE64URL[c] : -1;
+            if (sextet < 0) {
+                return null;
+            }
+            bits = bits << 6 | sextet;
+            pendingBits += 6;
+            if (pendingBits >= 8) {
+                pendingBits -= 8;
+                decoded[position++] = (byte) (bits >> pendingBits);
+            }
+        }
+        return decoded;
+    }
+
+    private static int[] base64UrlAlphabet() {
+        var alphabet = new int[128];
+        Arrays.fill(alphabet, -1);
+        var characters = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (var i = 0; i < characters.length(); i++) {
+            alphabet[characters.charAt(i)] = i;
+        }
+        return alphabet;
+    }
+
+    private static String scalarText(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
 }
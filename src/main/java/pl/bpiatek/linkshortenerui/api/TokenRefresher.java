@@ -1,7 +1,9 @@
 package pl.bpiatek.linkshortenerui.api;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.http.Cookie;
-import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,84 +11,134 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClient;
-import org.springframework.web.context.annotation.RequestScope;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import pl.bpiatek.linkshortenerui.dto.RefreshRequest;
 import pl.bpiatek.linkshortenerui.dto.TokenResponse;
 
-import java.util.Arrays;
+import static pl.bpiatek.linkshortenerui.api.AuthContextFilter.ACCESS_TOKEN_COOKIE;
+import static pl.bpiatek.linkshortenerui.api.AuthContextFilter.REFRESH_TOKEN_COOKIE;
 
 @Service
-@RequestScope
 class TokenRefresher {
 
     private static final Logger log = LoggerFactory.getLogger(TokenRefresher.class);
 
     private final RestClient restClient;
-    private final HttpServletRequest request;
-    private final HttpServletResponse response;
+    private final RefreshCoordinator refreshCoordinator;
+    private final TokenExtractor tokenExtractor;
+    private final AuthenticatedTokens authenticatedTokens;
+    private final Counter refreshSucceeded;
+    private final Counter refreshMissingToken;
+    private final Counter refreshFailed;
+    private final Counter refreshUnavailable;
 
     TokenRefresher(RestClient restClient,
-                   HttpServletRequest request,
-                   HttpServletResponse response) {
+                   RefreshCoordinator refreshCoordinator,
+                   TokenExtractor tokenExtractor,
+                   AuthenticatedTokens authenticatedTokens,
+                   MeterRegistry meterRegistry) {
         this.restClient = restClient;
-        this.request = request;
-        this.response = response;
+        this.refreshCoordinator = refreshCoordinator;
+        this.tokenExtractor = tokenExtractor;
+        this.authenticatedTokens = authenticatedTokens;
+        this.refreshSucceeded = resultCounter(meterRegistry, "success");
+        this.refreshMissingToken = resultCounter(meterRegistry, "missing_token");
+        this.refreshFailed = resultCounter(meterRegistry, "failure");
+        this.refreshUnavailable = resultCounter(meterRegistry, "gateway_unavailable");
     }
 
+    /**
+     * Exchanges the refresh token and sets the new cookies. When the gateway rejects the exchange the
+     * cookies are cleared and a 401 is thrown. When it is unavailable (breaker open, I/O error, 5xx) the
+     * session is kept and the exception is rethrown, callers fall back as for any other gateway outage.
+     */
     String refreshAccessToken() {
-        var refreshToken = getCookie("refresh_jwt");
+        var auth = AuthContext.current();
+        var refreshToken = auth.refreshToken();
+        var timings = RequestTimings.current();
+        var start = System.nanoTime();
 
         try {
-            if (refreshToken == null || refreshToken.isBlank()) {
-                log.info("no refresh token");
+            if (!auth.hasRefreshToken()) {
+                log.debug("no refresh token");
+                refreshMissingToken.increment();
                 throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED, "Missing refresh token");
             }
 
-            var tokens = restClient.post()
-                    .uri("/users/auth/refresh")
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(new RefreshRequest(refreshToken))
-                    .retrieve()
-                    .body(TokenResponse.class);
+            var tokens = refreshCoordinator.refresh(refreshToken, () -> exchange(refreshToken));
 
             log.info("refresh successful");
+            refreshSucceeded.increment();
+            authenticatedTokens.add(tokens.accessToken());
 
-            setCookie("jwt", tokens.accessToken(), 900);
-            setCookie("refresh_jwt", tokens.refreshToken(), 604800);
+            setCookie(ACCESS_TOKEN_COOKIE, tokens.accessToken(), 900);
+            setCookie(REFRESH_TOKEN_COOKIE, tokens.refreshToken(), 604800);
+            // later calls within this request must not present the rotated refresh token again
+            AuthContext.update(auth.withTokens(
+                    tokens.accessToken(),
+                    tokens.refreshToken(),
+                    tokenExtractor.extractClaims(tokens.accessToken())));
 
             return tokens.accessToken();
+        } catch (CallNotPermittedException | ResourceAccessException | HttpServerErrorException e) {
+            // the refresh token is still good, logging the user out would outlast the outage
+            refreshUnavailable.increment();
+            log.warn("refresh not possible, gateway unavailable: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
+            if (auth.hasRefreshToken()) {
+                refreshFailed.increment();
+            }
             log.error("refresh failed", e);
             clearCookies();
             throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED, "Refresh failed");
+        } finally {
+            timings.refresh(start);
         }
     }
 
+    /**
+     * Exchanges the given refresh token for work that outlives its request, e.g. a streamed export.
+     * Cookies and the request's AuthContext are left alone, the response is committed by then, so the
+     * browser keeps the old tokens. Refresh before the response is committed where possible.
+     */
+    TokenResponse refresh(String refreshToken) {
+        var tokens = refreshCoordinator.refresh(refreshToken, () -> exchange(refreshToken));
+        authenticatedTokens.add(tokens.accessToken());
+        return tokens;
+    }
+
     public void clearCookies() {
-        setCookie("jwt", "", 0);
-        setCookie("refresh_jwt", "", 0);
+        setCookie(ACCESS_TOKEN_COOKIE, "", 0);
+        setCookie(REFRESH_TOKEN_COOKIE, "", 0);
+        AuthContext.update(AuthContext.ANONYMOUS);
     }
 
-    private String getCookie(String name) {
-        if (request.getCookies() == null) {
-            log.info("Cookies are not present");
-            return null;
-        }
+    private TokenResponse exchange(String refreshToken) {
+        return restClient.post()
+                .uri("/users/auth/refresh")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new RefreshRequest(refreshToken))
+                .retrieve()
+                .body(TokenResponse.class);
+    }
 
-        return Arrays.stream(request.getCookies())
-                .filter(c -> name.equals(c.getName()))
-                .map(c -> {
-                    log.info("Cookie found: {}", name);
-                    return  c.getValue();
-                })
-                .findAny().orElseGet(() -> {
-                    log.info("Cookie not found: {}", name);
-                    return null;
-                });
+    private static Counter resultCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("ui.auth.token.refresh.results")
+                .description("Outcomes of access token refresh attempts")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
     }
 
     private void setCookie(String name, String value, int maxAge) {
+        var response = currentResponse();
+        if (response == null) {
+            return;
+        }
         var cookie = new Cookie(name, value);
         cookie.setHttpOnly(true);
         cookie.setSecure(true);
@@ -94,4 +146,10 @@ class TokenRefresher {
         cookie.setMaxAge(maxAge);
         response.addCookie(cookie);
     }
-}
\ No newline at end of file
+
+    private static HttpServletResponse currentResponse() {
+        return RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes
+                ? attributes.getResponse()
+                : null;
+    }
+}
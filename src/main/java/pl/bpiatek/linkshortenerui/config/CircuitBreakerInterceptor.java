@@ -0,0 +1,46 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guards every gateway call with the circuit breaker. While it is open the call throws
+ * {@link io.github.resilience4j.circuitbreaker.CallNotPermittedException} without touching the network.
+ */
+class CircuitBreakerInterceptor implements ClientHttpRequestInterceptor {
+
+    private final CircuitBreaker circuitBreaker;
+
+    CircuitBreakerInterceptor(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request,
+                                        byte[] body,
+                                        ClientHttpRequestExecution execution) throws IOException {
+        circuitBreaker.acquirePermission();
+        var start = System.nanoTime();
+        try {
+            var response = execution.execute(request, body);
+            var duration = System.nanoTime() - start;
+            if (response.getStatusCode().is5xxServerError()) {
+                circuitBreaker.onError(duration, TimeUnit.NANOSECONDS,
+                        new HttpServerErrorException(response.getStatusCode()));
+            } else {
+                circuitBreaker.onSuccess(duration, TimeUnit.NANOSECONDS);
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            circuitBreaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, e);
+            throw e;
+        }
+    }
+}
@@ -1,20 +1,143 @@
 package pl.bpiatek.linkshortenerui.config;
 
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestClient;
+import pl.bpiatek.linkshortenerui.api.AuthenticatedTokens;
+import pl.bpiatek.linkshortenerui.api.TokenExtractor;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 
 @Configuration
+@EnableConfigurationProperties(GatewayClientProperties.class)
 class ClientConfig {
 
+    /**
+     * Built from Boot's auto-configured builder so client observations (http.client.requests) are kept.
+     */
     @Bean
     RestClient apiGatewayClient(
+            RestClient.Builder restClientBuilder,
+            ClientHttpRequestFactory gatewayRequestFactory,
+            CircuitBreaker gatewayCircuitBreaker,
+            GatewayClientProperties properties,
+            TokenExtractor tokenExtractor,
+            AuthenticatedTokens authenticatedTokens,
+            MeterRegistry meterRegistry,
             @Value("${api.gateway.url}") String gatewayUrl,
             @Value("${api.gateway.host-header}") String hostHeader) {
-        return RestClient.builder()
+        restClientBuilder.requestFactory(gatewayRequestFactory);
+        if (properties.httpCache().enabled()) {
+            // outermost, fresh entries are answered without a breaker permit or a latency sample
+            restClientBuilder.requestInterceptor(
+                    new GatewayHttpCacheInterceptor(properties.httpCache(), tokenExtractor, authenticatedTokens, meterRegistry));
+        }
+        return restClientBuilder
+                // calls rejected by an open breaker never reach the latency metrics
+                .requestInterceptor(new CircuitBreakerInterceptor(gatewayCircuitBreaker))
+                .requestInterceptor(new GatewayMetricsInterceptor(meterRegistry))
                 .baseUrl(gatewayUrl)
                 .defaultHeader("Host", hostHeader)
                 .build();
     }
+
+    @Bean
+    ClientHttpRequestFactory gatewayRequestFactory(GatewayClientProperties properties, MeterRegistry meterRegistry) {
+        return switch (properties.factory()) {
+            case APACHE -> apacheRequestFactory(properties, meterRegistry);
+            case JDK -> jdkRequestFactory(properties);
+        };
+    }
+
+    private static ClientHttpRequestFactory apacheRequestFactory(GatewayClientProperties properties,
+                                                                 MeterRegistry meterRegistry) {
+        var pool = properties.pool();
+        var connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(pool.maxTotal())
+                .setMaxConnPerRoute(pool.maxPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(timeout(properties.connectTimeout()))
+                        .setTimeToLive(TimeValue.ofMilliseconds(pool.timeToLive().toMillis()))
+                        .setValidateAfterInactivity(TimeValue.ofMilliseconds(pool.validateAfterInactivity().toMillis()))
+                        .build())
+                .build();
+
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "api-gateway")
+                .bindTo(meterRegistry);
+
+        var httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(pool.idleTimeout().toMillis()))
+                .build();
+
+        var factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        factory.setConnectionRequestTimeout(pool.acquireTimeout());
+        factory.setReadTimeout(properties.readTimeout());
+
+        var routeTimeouts = properties.routeReadTimeouts().entrySet().stream()
+                .sorted(Comparator.comparingInt((Map.Entry<String, Duration> route) -> route.getKey().length()).reversed())
+                .toList();
+        if (!routeTimeouts.isEmpty()) {
+            // a context carrying its own RequestConfig replaces the factory defaults for that request
+            factory.setHttpContextFactory((method, uri) -> {
+                var routeTimeout = routeTimeout(routeTimeouts, uri);
+                if (routeTimeout == null) {
+                    return null;
+                }
+                var context = HttpClientContext.create();
+                context.setRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(timeout(pool.acquireTimeout()))
+                        .setResponseTimeout(timeout(routeTimeout))
+                        .build());
+                return context;
+            });
+        }
+        return factory;
+    }
+
+    private static ClientHttpRequestFactory jdkRequestFactory(GatewayClientProperties properties) {
+        var httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(properties.connectTimeout())
+                .build();
+
+        var factory = new JdkClientHttpRequestFactory(httpClient);
+        factory.setReadTimeout(properties.readTimeout());
+        return factory;
+    }
+
+    private static Duration routeTimeout(List<Map.Entry<String, Duration>> routeTimeouts, URI uri) {
+        var path = uri.getPath();
+        for (var route : routeTimeouts) {
+            if (path != null && path.startsWith(route.getKey())) {
+                return route.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static Timeout timeout(Duration duration) {
+        return Timeout.ofMilliseconds(duration.toMillis());
+    }
 }
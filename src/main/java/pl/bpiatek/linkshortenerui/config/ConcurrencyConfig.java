@@ -0,0 +1,20 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+class ConcurrencyConfig {
+
+    /**
+     * Virtual threads for gateway calls started ahead of or in parallel to the request thread.
+     * Tasks are I/O bound, concurrency is limited by the gateway connection pool, not by this executor.
+     */
+    @Bean(destroyMethod = "close")
+    ExecutorService gatewayCallExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("gateway-call-", 0).factory());
+    }
+}
@@ -0,0 +1,73 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * HTTP engine settings of the API gateway client.
+ *
+ * @param factory            client engine, APACHE (pooled HttpClient 5) or JDK (java.net.http with HTTP/2).
+ *                           The JDK client drops the Host header unless the JVM runs with
+ *                           -Djdk.httpclient.allowRestrictedHeaders=host
+ * @param connectTimeout     TCP connect timeout
+ * @param readTimeout        default response timeout
+ * @param routeReadTimeouts  response timeout overrides by gateway path prefix, longest prefix wins,
+ *                           e.g. api.gateway.client.route-read-timeouts[/users/auth]=3s (APACHE engine only)
+ * @param pool               connection pool settings, used by the APACHE engine only
+ * @param httpCache          private HTTP cache for GETs, see {@link GatewayHttpCacheInterceptor}
+ */
+@ConfigurationProperties("api.gateway.client")
+record GatewayClientProperties(
+        @DefaultValue("apache") Factory factory,
+        @DefaultValue("2s") Duration connectTimeout,
+        @DefaultValue("10s") Duration readTimeout,
+        Map<String, Duration> routeReadTimeouts,
+        @DefaultValue Pool pool,
+        @DefaultValue HttpCache httpCache
+) {
+
+    GatewayClientProperties {
+        routeReadTimeouts = routeReadTimeouts != null ? Map.copyOf(routeReadTimeouts) : Map.of();
+    }
+
+    enum Factory {
+        APACHE,
+        JDK
+    }
+
+    /**
+     * @param maxTotal                connections kept open to the gateway in total
+     * @param maxPerRoute             connections per route, the gateway is a single route
+     * @param acquireTimeout          how long a request waits for a free connection
+     * @param idleTimeout             idle connections older than this are evicted in the background
+     * @param timeToLive              connections are never reused past this age
+     * @param validateAfterInactivity idle time after which a connection is checked before reuse
+     */
+    record Pool(
+            @DefaultValue("50") int maxTotal,
+            @DefaultValue("50") int maxPerRoute,
+            @DefaultValue("2s") Duration acquireTimeout,
+            @DefaultValue("30s") Duration idleTimeout,
+            @DefaultValue("5m") Duration timeToLive,
+            @DefaultValue("2s") Duration validateAfterInactivity
+    ) {
+    }
+
+    /**
+     * @param enabled      whether gateway GETs go through the cache at all
+     * @param maxSize      byte budget of all stored responses, the least valuable entries are evicted first
+     * @param maxEntrySize larger bodies are passed through without being stored
+     * @param retention    entries are dropped this long after they were stored or last revalidated
+     */
+    record HttpCache(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("16MB") DataSize maxSize,
+            @DefaultValue("256KB") DataSize maxEntrySize,
+            @DefaultValue("1h") Duration retention
+    ) {
+    }
+}
@@ -0,0 +1,491 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import pl.bpiatek.linkshortenerui.api.AuthenticatedTokens;
+import pl.bpiatek.linkshortenerui.api.TokenExtractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Private HTTP cache (RFC 9111) for GETs to the gateway, kept per user and URI.
+ * <p>
+ * A response is stored when the gateway allows it (no no-store) and there is something to gain: a
+ * freshness lifetime from Cache-Control max-age or Expires, or a validator. Fresh entries are answered
+ * without a call, stale ones are revalidated with If-None-Match / If-Modified-Since and a 304 is answered
+ * from the stored body. Without explicit freshness nothing is fresh, link data changes without notice,
+ * so no heuristic lifetime is applied.
+ * <p>
+ * Entries are kept per principal of the bearer token, which is read without checking the signature.
+ * A fresh entry is only answered without a call for a token the gateway has accepted before
+ * ({@link AuthenticatedTokens}), any other token revalidates, so the gateway decides whether it gets
+ * the stored body.
+ * <p>
+ * Any unsafe request of a user drops all entries of that user: a PATCH of a link changes the dashboard
+ * pages listing it as well, not only its own URI. The body is recorded while the caller reads it, so
+ * streamed pages are not buffered up front, and bodies over the entry size limit are not stored.
+ */
+class GatewayHttpCacheInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(GatewayHttpCacheInterceptor.class);
+
+    // rough cost of the key, entry and header maps besides the body and header text
+    private static final int ENTRY_OVERHEAD_BYTES = 512;
+    private static final Set<String> NOT_STORED_HEADERS = Set.of(
+            HttpHeaders.CONNECTION, "Keep-Alive", HttpHeaders.TRANSFER_ENCODING, HttpHeaders.CONTENT_LENGTH);
+    // a 304 describes the stored representation, these headers would describe the empty 304 body
+    private static final Set<String> NOT_UPDATED_HEADERS = Set.of(
+            HttpHeaders.CONNECTION, "Keep-Alive", HttpHeaders.TRANSFER_ENCODING, HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_ENCODING);
+
+    private final TokenExtractor tokenExtractor;
+    private final AuthenticatedTokens authenticatedTokens;
+    private final int maxEntryBytes;
+    private final Cache<Key, Entry> entries;
+    // bumped by every unsafe request, responses of GETs that overlapped one are not stored
+    private final AtomicLong writes = new AtomicLong();
+    private final Counter hits;
+    private final Counter revalidated;
+    private final Counter misses;
+
+    GatewayHttpCacheInterceptor(GatewayClientProperties.HttpCache settings,
+                                TokenExtractor tokenExtractor,
+                                AuthenticatedTokens authenticatedTokens,
+                                MeterRegistry meterRegistry) {
+        this.tokenExtractor = tokenExtractor;
+        this.authenticatedTokens = authenticatedTokens;
+        this.maxEntryBytes = (int) Math.min(settings.maxEntrySize().toBytes(), Integer.MAX_VALUE - ENTRY_OVERHEAD_BYTES);
+        this.entries = Caffeine.newBuilder()
+                .maximumWeight(settings.maxSize().toBytes())
+                .weigher((Key key, Entry entry) -> entry.weight(key))
+                .expireAfterWrite(settings.retention())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, "gateway.responses");
+        this.hits = resultCounter(meterRegistry, "hit");
+        this.revalidated = resultCounter(meterRegistry, "revalidated");
+        this.misses = resultCounter(meterRegistry, "miss");
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request,
+                                        byte[] body,
+                                        ClientHttpRequestExecution execution) throws IOException {
+        var token = bearerToken(request);
+        var user = user(token);
+        if (user == null) {
+            return execution.execute(request, body);
+        }
+        if (!isSafe(request.getMethod())) {
+            try {
+                return execution.execute(request, body);
+            } finally {
+                // also after errors, a failed or timed out write may still have been applied
+                invalidate(user);
+            }
+        }
+        if (request.getMethod() != HttpMethod.GET || isConditional(request.getHeaders())) {
+            return execution.execute(request, body);
+        }
+
+        var key = new Key(user, request.getURI());
+        var entry = entries.getIfPresent(key);
+        if (entry != null && entry.isFresh(System.nanoTime()) && authenticatedTokens.contains(token)) {
+            hits.increment();
+            return entry.toResponse();
+        }
+
+        var generation = writes.get();
+        if (entry != null) {
+            entry.addValidators(request.getHeaders());
+        }
+        var requested = System.nanoTime();
+        var response = execution.execute(request, body);
+
+        if (entry != null && response.getStatusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+            var updated = entry.revalidated(response.getHeaders(), requested);
+            response.close();
+            store(key, updated, generation);
+            revalidated.increment();
+            return updated.toResponse();
+        }
+
+        misses.increment();
+        if (!isStorable(response)) {
+            if (entry != null) {
+                entries.invalidate(key);
+            }
+            return response;
+        }
+        var headers = response.getHeaders();
+        return new RecordingResponse(response, maxEntryBytes,
+                recorded -> store(key, Entry.of(headers, recorded, requested), generation));
+    }
+
+    private void store(Key key, Entry entry, long generation) {
+        if (writes.get() != generation) {
+            return;
+        }
+        entries.put(key, entry);
+        // an unsafe request that started after the check above has to win
+        if (writes.get() != generation) {
+            entries.asMap().remove(key, entry);
+        }
+    }
+
+    private void invalidate(String user) {
+        writes.incrementAndGet();
+        entries.asMap().keySet().removeIf(key -> key.user().equals(user));
+    }
+
+    private static String bearerToken(HttpRequest request) {
+        var authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return null;
+        }
+        return authorization.substring("Bearer ".length());
+    }
+
+    private String user(String token) {
+        if (token == null) {
+            return null;
+        }
+        var claims = tokenExtractor.extractClaims(token);
+        return claims != null ? claims.principal() : null;
+    }
+
+    private static boolean isSafe(HttpMethod method) {
+        return method == HttpMethod.GET || method == HttpMethod.HEAD
+                || method == HttpMethod.OPTIONS || method == HttpMethod.TRACE;
+    }
+
+    /**
+     * Callers sending their own validators expect to see the 304, they are not answered from the cache.
+     */
+    private static boolean isConditional(HttpHeaders headers) {
+        return headers.containsKey(HttpHeaders.IF_NONE_MATCH) || headers.containsKey(HttpHeaders.IF_MODIFIED_SINCE);
+    }
+
+    private static boolean isStorable(ClientHttpResponse response) throws IOException {
+        if (response.getStatusCode().value() != HttpStatus.OK.value()) {
+            return false;
+        }
+        var headers = response.getHeaders();
+        var vary = headers.getFirst(HttpHeaders.VARY);
+        if (cacheControl(headers).containsKey("no-store") || (vary != null && vary.contains("*"))) {
+            return false;
+        }
+        return freshnessNanos(headers) > 0 || headers.getETag() != null || headers.containsKey(HttpHeaders.LAST_MODIFIED);
+    }
+
+    /**
+     * Freshness lifetime left at the time of the response: max-age or Expires, minus the Age the
+     * response already had. Zero under no-cache, must-revalidate needs nothing extra since stale
+     * entries are never served without revalidation.
+     */
+    static long freshnessNanos(HttpHeaders headers) {
+        var cacheControl = cacheControl(headers);
+        if (cacheControl.containsKey("no-cache")) {
+            return 0;
+        }
+        long lifetimeSeconds;
+        var maxAge = cacheControl.get("max-age");
+        if (maxAge != null) {
+            lifetimeSeconds = seconds(maxAge);
+        } else if (headers.containsKey(HttpHeaders.EXPIRES)) {
+            // an invalid Expires, e.g. "0", parses to -1 and means already expired
+            var expires = headers.getExpires();
+            var date = headers.getDate();
+            lifetimeSeconds = expires < 0 ? 0 : (expires - (date > 0 ? date : System.currentTimeMillis())) / 1000;
+        } else {
+            lifetimeSeconds = 0;
+        }
+        lifetimeSeconds -= seconds(headers.getFirst(HttpHeaders.AGE));
+        return lifetimeSeconds > 0 ? TimeUnit.SECONDS.toNanos(lifetimeSeconds) : 0;
+    }
+
+    /**
+     * Directive names in lower case mapped to their unquoted argument, or an empty string.
+     */
+    static Map<String, String> cacheControl(HttpHeaders headers) {
+        var directives = new HashMap<String, String>();
+        for (var value : headers.getOrEmpty(HttpHeaders.CACHE_CONTROL)) {
+            for (var directive : value.split(",")) {
+                var separator = directive.indexOf('=');
+                var name = (separator < 0 ? directive : directive.substring(0, separator)).strip().toLowerCase(Locale.ROOT);
+                var argument = separator < 0 ? "" : directive.substring(separator + 1).strip().replace("\"", "");
+                if (!name.isEmpty()) {
+                    directives.putIfAbsent(name, argument);
+                }
+            }
+        }
+        return directives;
+    }
+
+    private static long seconds(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.strip()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Counter resultCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("ui.gateway.cache.requests")
+                .description("Gateway GETs answered from the private HTTP cache (hit), after a 304 (revalidated) or by a full response (miss)")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record Key(String user, URI uri) {
+    }
+
+    /**
+     * A stored 200 response. Only 200s are stored, the gateway answers everything else without a body worth keeping.
+     */
+    private record Entry(HttpHeaders headers, byte[] body, long freshUntilNanos) {
+
+        static Entry of(HttpHeaders responseHeaders, byte[] body, long requestedNanos) {
+            var headers = new HttpHeaders();
+            responseHeaders.forEach((name, values) -> {
+                if (!containsIgnoreCase(NOT_STORED_HEADERS, name)) {
+                    headers.put(name, values);
+                }
+            });
+            headers.setContentLength(body.length);
+            return new Entry(HttpHeaders.readOnlyHttpHeaders(headers), body, requestedNanos + freshnessNanos(headers));
+        }
+
+        /**
+         * The stored response with the headers of the 304 applied, as in RFC 9111 section 4.3.4.
+         */
+        Entry revalidated(HttpHeaders notModifiedHeaders, long requestedNanos) {
+            var headers = new HttpHeaders();
+            headers.putAll(this.headers);
+            // an Age kept from the first response would shorten the new lifetime
+            headers.remove(HttpHeaders.AGE);
+            notModifiedHeaders.forEach((name, values) -> {
+                if (!containsIgnoreCase(NOT_UPDATED_HEADERS, name)) {
+                    headers.put(name, values);
+                }
+            });
+            return new Entry(HttpHeaders.readOnlyHttpHeaders(headers), body, requestedNanos + freshnessNanos(headers));
+        }
+
+        boolean isFresh(long nowNanos) {
+            return nowNanos - freshUntilNanos < 0;
+        }
+
+        void addValidators(HttpHeaders requestHeaders) {
+            var etag = headers.getETag();
+            if (etag != null) {
+                requestHeaders.setIfNoneMatch(etag);
+            }
+            var lastModified = headers.getFirst(HttpHeaders.LAST_MODIFIED);
+            if (lastModified != null) {
+                requestHeaders.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+
+        ClientHttpResponse toResponse() {
+            return new CachedResponse(headers, body);
+        }
+
+        int weight(Key key) {
+            long bytes = ENTRY_OVERHEAD_BYTES + body.length + 2L * (key.user().length() + key.uri().toString().length());
+            for (var header : headers.entrySet()) {
+                bytes += 2L * header.getKey().length();
+                for (var value : header.getValue()) {
+                    bytes += 2L * value.length();
+                }
+            }
+            return (int) Math.min(bytes, Integer.MAX_VALUE);
+        }
+
+        private static boolean containsIgnoreCase(Set<String> names, String name) {
+            for (var candidate : names) {
+                if (candidate.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private record CachedResponse(HttpHeaders headers, byte[] body) implements ClientHttpResponse {
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatus.OK;
+        }
+
+        @Override
+        public String getStatusText() {
+            return HttpStatus.OK.getReasonPhrase();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Passes the response through and keeps a copy of the body as it is read. The copy is handed over
+     * once the body has been read to the end, on close the rest is drained first since the connection
+     * is only reused after that anyway. Bodies over the limit are dropped and the rest is left alone.
+     */
+    private static final class RecordingResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+        private final int limit;
+        private final Consumer<byte[]> onComplete;
+        private RecordingInputStream body;
+
+        RecordingResponse(ClientHttpResponse delegate, int limit, Consumer<byte[]> onComplete) {
+            this.delegate = delegate;
+            this.limit = limit;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new RecordingInputStream(delegate.getBody());
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (body != null) {
+                    body.drain();
+                }
+            } catch (IOException e) {
+                log.debug("Response body not stored, reading the rest failed: {}", e.getMessage());
+            } finally {
+                delegate.close();
+            }
+        }
+
+        private final class RecordingInputStream extends FilterInputStream {
+
+            private ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+
+            RecordingInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                var b = in.read();
+                if (b < 0) {
+                    complete();
+                } else if (recorded != null && fits(1)) {
+                    recorded.write(b);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                var count = in.read(buffer, offset, length);
+                if (count < 0) {
+                    complete();
+                } else if (recorded != null && fits(count)) {
+                    recorded.write(buffer, offset, count);
+                }
+                return count;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                // skipped bytes would leave a hole in the copy
+                recorded = null;
+                return in.skip(n);
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            void drain() throws IOException {
+                var buffer = new byte[8192];
+                while (recorded != null && read(buffer, 0, buffer.length) >= 0) {
+                    // read() records the bytes, the loop stops at the end or once the copy is dropped
+                }
+            }
+
+            private boolean fits(int count) {
+                if (recorded.size() + count > limit) {
+                    recorded = null;
+                    return false;
+                }
+                return true;
+            }
+
+            private void complete() {
+                if (recorded != null) {
+                    var copy = recorded.toByteArray();
+                    recorded = null;
+                    onComplete.accept(copy);
+                }
+            }
+        }
+    }
+}
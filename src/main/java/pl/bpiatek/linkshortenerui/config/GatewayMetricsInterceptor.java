@@ -0,0 +1,77 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.http.Outcome;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+
+/**
+ * Records the latency of every gateway call as ui.gateway.requests, tagged with a normalized
+ * URI template so that calls built with a UriBuilder (which Boot's http.client.requests
+ * can't template) don't explode the tag cardinality. The timer stops once the response
+ * headers arrive, body decoding is not included.
+ * <p>
+ * SLO buckets are configured with management.metrics.distribution.slo.ui.gateway.requests.
+ */
+class GatewayMetricsInterceptor implements ClientHttpRequestInterceptor {
+
+    static final String METRIC_NAME = "ui.gateway.requests";
+
+    private final MeterRegistry meterRegistry;
+
+    GatewayMetricsInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request,
+                                        byte[] body,
+                                        ClientHttpRequestExecution execution) throws IOException {
+        var sample = Timer.start(meterRegistry);
+        try {
+            var response = execution.execute(request, body);
+            var status = response.getStatusCode().value();
+            sample.stop(timer(request, String.valueOf(status), Outcome.forStatus(status).name()));
+            return response;
+        } catch (IOException | RuntimeException e) {
+            sample.stop(timer(request, "IO_ERROR", Outcome.UNKNOWN.name()));
+            throw e;
+        }
+    }
+
+    private Timer timer(HttpRequest request, String status, String outcome) {
+        return Timer.builder(METRIC_NAME)
+                .description("Latency of calls to the API gateway")
+                .tag("uri", uriTemplate(request.getURI().getPath()))
+                .tag("method", request.getMethod().name())
+                .tag("status", status)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Replaces link identifiers with a placeholder, e.g. /dashboard/links/abc123 becomes /dashboard/links/{id}.
+     */
+    static String uriTemplate(String path) {
+        if (path == null || path.isEmpty()) {
+            return "root";
+        }
+
+        var linksSegment = path.indexOf("/links/");
+        if (linksSegment < 0) {
+            return path;
+        }
+
+        var idStart = linksSegment + "/links/".length();
+        var idEnd = path.indexOf('/', idStart);
+        if (idStart == path.length()) {
+            return path;
+        }
+        return path.substring(0, idStart) + "{id}" + (idEnd < 0 ? "" : path.substring(idEnd));
+    }
+}
@@ -0,0 +1,32 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Per-handler CPU and allocation accounting, see {@link HandlerUsageMeter}.
+ */
+@Configuration
+class HandlerUsageConfig implements WebMvcConfigurer {
+
+    private final HandlerUsageMeter meter;
+
+    HandlerUsageConfig(HandlerUsageMeter meter) {
+        this.meter = meter;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (meter.enabled()) {
+            registry.addInterceptor(new HandlerUsageInterceptor(meter));
+        }
+    }
+
+    @Bean
+    TopAllocatorsEndpoint topAllocatorsEndpoint(@Value("${ui.handler-usage.top:20}") int limit) {
+        return new TopAllocatorsEndpoint(meter, limit);
+    }
+}
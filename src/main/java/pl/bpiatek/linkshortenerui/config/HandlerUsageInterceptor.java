@@ -0,0 +1,60 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures each controller handler with {@link HandlerUsageMeter}, from before the handler runs until
+ * the view has been rendered. For async requests (exports) only the part up to the start of the async
+ * processing is measured, the dispatch that completes them is not measured again.
+ */
+class HandlerUsageInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = HandlerUsageInterceptor.class.getName() + ".start";
+
+    private final HandlerUsageMeter meter;
+    private final ConcurrentHashMap<Method, String> handlerNames = new ConcurrentHashMap<>();
+
+    HandlerUsageInterceptor(HandlerUsageMeter meter) {
+        this.meter = meter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (handler instanceof HandlerMethod handlerMethod && request.getDispatcherType() != DispatcherType.ASYNC) {
+            request.setAttribute(START_ATTRIBUTE, meter.start(handlerName(handlerMethod)));
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        stop(request);
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        stop(request);
+    }
+
+    private void stop(HttpServletRequest request) {
+        if (request.getAttribute(START_ATTRIBUTE) instanceof HandlerUsageMeter.Start start) {
+            request.removeAttribute(START_ATTRIBUTE);
+            meter.stop(start);
+        }
+    }
+
+    /**
+     * E.g. DashboardController.dashboard
+     */
+    private String handlerName(HandlerMethod handlerMethod) {
+        return handlerNames.computeIfAbsent(handlerMethod.getMethod(),
+                method -> handlerMethod.getBeanType().getSimpleName() + "." + method.getName());
+    }
+}
@@ -0,0 +1,283 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CPU time and heap allocated by each controller handler, published as ui.handler.cpu and
+ * ui.handler.allocation and summed over a sliding window for {@link TopAllocatorsEndpoint}.
+ * <p>
+ * On a platform thread the numbers are exact: the thread's CPU time and allocated bytes at the start
+ * and at the end of the handler. The JVM doesn't keep these counters for virtual threads, so there they
+ * are estimated from the JFR events {@link JfrEventMetrics} streams: allocation samples and execution
+ * samples of the request's virtual thread. Each request gets a thread of its own, so the thread id
+ * identifies the request. Events arrive about a second late, a request is published once that grace
+ * period has passed. Estimates of a single request are coarse, per handler and window they add up.
+ * The source tag tells them apart (thread or jfr).
+ * <p>
+ * Work done for the request on other threads, e.g. parallel gateway calls, is not included.
+ * <p>
+ * Off by default (ui.handler-usage.enabled): execution sampling of every thread costs CPU of its own,
+ * turn it on while looking for a handler that uses too much.
+ */
+@Component
+class HandlerUsageMeter {
+
+    private static final int WINDOW_BUCKETS = 15;
+    // JFR flushes events once a second, this leaves enough time for them to be delivered
+    private static final Duration EVENT_GRACE = Duration.ofSeconds(5);
+    // a request still running after this long is not going to be accounted for
+    private static final Duration MAX_REQUEST = Duration.ofMinutes(15);
+
+    private final MeterRegistry meterRegistry;
+    private final com.sun.management.ThreadMXBean threads;
+    private final boolean enabled;
+    private final Duration cpuSamplePeriod;
+    private final Duration window;
+    private final long bucketNanos;
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(WINDOW_BUCKETS);
+    private final Cache<Long, SampledRequest> sampledRequests;
+    private volatile boolean sampling;
+
+    /**
+     * Taken when the handler starts, {@code sampled} is set instead of the counters on a virtual thread.
+     */
+    record Start(String handler, Thread thread, long cpuNanos, long allocatedBytes, SampledRequest sampled) {
+    }
+
+    record HandlerTotals(String handler, long requests, long allocatedBytes, long allocatedBytesPerRequest,
+                         double cpuMillis, double cpuMillisPerRequest) {
+    }
+
+    HandlerUsageMeter(MeterRegistry meterRegistry,
+                      @Value("${ui.handler-usage.enabled:false}") boolean enabled,
+                      @Value("${ui.handler-usage.cpu-sample-period:20ms}") Duration cpuSamplePeriod,
+                      @Value("${ui.handler-usage.window:15m}") Duration window) {
+        this.meterRegistry = meterRegistry;
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        this.enabled = enabled;
+        this.cpuSamplePeriod = cpuSamplePeriod;
+        this.window = window;
+        this.bucketNanos = Math.max(1, window.toNanos() / WINDOW_BUCKETS);
+        this.sampledRequests = Caffeine.newBuilder()
+                .expireAfter(new Expiry<Long, SampledRequest>() {
+                    @Override
+                    public long expireAfterCreate(Long threadId, SampledRequest request, long currentTime) {
+                        return request.end != null ? EVENT_GRACE.toNanos() : MAX_REQUEST.toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long threadId, SampledRequest request, long currentTime, long currentDuration) {
+                        return expireAfterCreate(threadId, request, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long threadId, SampledRequest request, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .scheduler(Scheduler.systemScheduler())
+                .maximumSize(100_000)
+                .removalListener((Long threadId, SampledRequest request, RemovalCause cause) -> {
+                    if (cause == RemovalCause.EXPIRED && request != null && request.end != null) {
+                        record(request.handler, request.cpuSamples.sum() * cpuSamplePeriod.toNanos(),
+                                request.allocatedBytes.sum(), "jfr");
+                    }
+                })
+                .build();
+        if (enabled && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        if (enabled && threads.isCurrentThreadCpuTimeSupported()) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    Duration cpuSamplePeriod() {
+        return cpuSamplePeriod;
+    }
+
+    Duration window() {
+        return window;
+    }
+
+    /**
+     * Called once the JFR stream delivers allocation and execution samples, until then requests on
+     * virtual threads are not measured.
+     */
+    void samplingStarted() {
+        sampling = true;
+    }
+
+    Start start(String handler) {
+        var thread = Thread.currentThread();
+        if (!thread.isVirtual()) {
+            return new Start(handler, thread, threads.getCurrentThreadCpuTime(), threads.getCurrentThreadAllocatedBytes(), null);
+        }
+        if (!sampling) {
+            return null;
+        }
+        var request = new SampledRequest(handler, Instant.now());
+        sampledRequests.put(thread.threadId(), request);
+        return new Start(handler, thread, -1, -1, request);
+    }
+
+    void stop(Start start) {
+        if (start == null || start.thread() != Thread.currentThread()) {
+            return;
+        }
+        if (start.sampled() != null) {
+            start.sampled().end = Instant.now();
+            // replaced to switch the entry to the grace period
+            sampledRequests.put(start.thread().threadId(), start.sampled());
+            return;
+        }
+        var cpuNanos = start.cpuNanos() < 0 ? -1 : threads.getCurrentThreadCpuTime() - start.cpuNanos();
+        var allocatedBytes = start.allocatedBytes() < 0 ? -1 : threads.getCurrentThreadAllocatedBytes() - start.allocatedBytes();
+        record(start.handler(), cpuNanos, allocatedBytes, "thread");
+    }
+
+    /**
+     * A JFR allocation sample of a virtual thread, weight being the bytes it stands for.
+     */
+    void allocationSampled(long threadId, Instant time, long weight) {
+        var request = sampledRequests.getIfPresent(threadId);
+        if (request != null && request.covers(time)) {
+            request.allocatedBytes.add(weight);
+        }
+    }
+
+    /**
+     * A JFR execution sample of a virtual thread, it was on a CPU for about one sampling period.
+     */
+    void executionSampled(long threadId, Instant time) {
+        var request = sampledRequests.getIfPresent(threadId);
+        if (request != null && request.covers(time)) {
+            request.cpuSamples.increment();
+        }
+    }
+
+    /**
+     * Handlers by bytes allocated within the window, the largest first.
+     */
+    List<HandlerTotals> topAllocators(int limit) {
+        var current = epoch();
+        var merged = new HashMap<String, long[]>();
+        for (var i = 0; i < WINDOW_BUCKETS; i++) {
+            var bucket = buckets.get(i);
+            if (bucket == null || bucket.epoch <= current - WINDOW_BUCKETS) {
+                continue;
+            }
+            bucket.handlers.forEach((handler, totals) -> {
+                var sums = merged.computeIfAbsent(handler, key -> new long[3]);
+                sums[0] += totals.requests.sum();
+                sums[1] += totals.allocatedBytes.sum();
+                sums[2] += totals.cpuNanos.sum();
+            });
+        }
+
+        var top = new ArrayList<HandlerTotals>(merged.size());
+        merged.forEach((handler, sums) -> {
+            var requests = Math.max(1, sums[0]);
+            top.add(new HandlerTotals(handler, sums[0], sums[1], sums[1] / requests,
+                    sums[2] / 1_000_000.0, sums[2] / 1_000_000.0 / requests));
+        });
+        top.sort(Comparator.comparingLong(HandlerTotals::allocatedBytes).reversed());
+        return top.size() > limit ? top.subList(0, limit) : top;
+    }
+
+    private void record(String handler, long cpuNanos, long allocatedBytes, String source) {
+        if (cpuNanos >= 0) {
+            Timer.builder("ui.handler.cpu")
+                    .description("CPU time of a controller handler on the request thread")
+                    .tag("handler", handler)
+                    .tag("source", source)
+                    .register(meterRegistry)
+                    .record(cpuNanos, TimeUnit.NANOSECONDS);
+        }
+        if (allocatedBytes >= 0) {
+            DistributionSummary.builder("ui.handler.allocation")
+                    .description("Heap allocated by a controller handler on the request thread")
+                    .baseUnit("bytes")
+                    .tag("handler", handler)
+                    .tag("source", source)
+                    .register(meterRegistry)
+                    .record(allocatedBytes);
+        }
+
+        var totals = bucket().handlers.computeIfAbsent(handler, key -> new Totals());
+        totals.requests.increment();
+        totals.allocatedBytes.add(Math.max(0, allocatedBytes));
+        totals.cpuNanos.add(Math.max(0, cpuNanos));
+    }
+
+    private Bucket bucket() {
+        var epoch = epoch();
+        var index = (int) Math.floorMod(epoch, WINDOW_BUCKETS);
+        while (true) {
+            var bucket = buckets.get(index);
+            if (bucket != null && bucket.epoch == epoch) {
+                return bucket;
+            }
+            var fresh = new Bucket(epoch, new ConcurrentHashMap<>());
+            if (buckets.compareAndSet(index, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private long epoch() {
+        return Math.floorDiv(System.nanoTime(), bucketNanos);
+    }
+
+    private record Bucket(long epoch, ConcurrentHashMap<String, Totals> handlers) {
+    }
+
+    private static final class Totals {
+        final LongAdder requests = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+    }
+
+    static final class SampledRequest {
+        final String handler;
+        final Instant start;
+        volatile Instant end;
+        final LongAdder allocatedBytes = new LongAdder();
+        final LongAdder cpuSamples = new LongAdder();
+
+        SampledRequest(String handler, Instant start) {
+            this.handler = handler;
+            this.start = start;
+        }
+
+        boolean covers(Instant time) {
+            var end = this.end;
+            return !time.isBefore(start) && (end == null || !time.isAfter(end));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Streams a handful of JFR events from the running JVM into Micrometer, so pinning and allocation
+ * regressions can be alerted on without attaching a profiler:
+ * <ul>
+ *     <li>ui.jfr.virtual-thread.pinned - virtual threads that blocked while pinned to their carrier
+ *     for longer than ui.jfr.pinned-threshold, tagged with the innermost frame of our own code</li>
+ *     <li>ui.jfr.virtual-thread.submit-failed - virtual threads that could not be scheduled</li>
+ *     <li>ui.jfr.gc.pause - pause time of each collection, tagged with collector and cause</li>
+ *     <li>ui.jfr.allocation - bytes allocated, estimated from JFR's throttled allocation samples</li>
+ *     <li>ui.jfr.socket.read - blocking socket reads longer than ui.jfr.socket-read-threshold, by host</li>
+ * </ul>
+ * Only the pinning event takes a stack trace, the others are cheap enough to stay on all the time.
+ * Events are delivered in batches about once a second on a thread of their own.
+ * <p>
+ * Allocation samples and, when {@link HandlerUsageMeter} is on, execution samples of virtual threads
+ * are also passed to it, the JVM has no per-thread counters for them.
+ */
+@Component
+class JfrEventMetrics implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(JfrEventMetrics.class);
+
+    private static final String APPLICATION_PACKAGE = "pl.bpiatek.linkshortenerui.";
+
+    private final MeterRegistry meterRegistry;
+    private final HandlerUsageMeter handlerUsage;
+    private final Counter submitFailed;
+    private final Counter allocated;
+    private final RecordingStream stream;
+
+    JfrEventMetrics(MeterRegistry meterRegistry,
+                    HandlerUsageMeter handlerUsage,
+                    @Value("${ui.jfr.enabled:true}") boolean enabled,
+                    @Value("${ui.jfr.pinned-threshold:20ms}") Duration pinnedThreshold,
+                    @Value("${ui.jfr.socket-read-threshold:20ms}") Duration socketReadThreshold,
+                    @Value("${ui.jfr.allocation-sample-rate:150/s}") String allocationSampleRate) {
+        this.meterRegistry = meterRegistry;
+        this.handlerUsage = handlerUsage;
+        this.submitFailed = Counter.builder("ui.jfr.virtual-thread.submit-failed")
+                .description("Virtual threads that could not be started or unparked")
+                .register(meterRegistry);
+        this.allocated = Counter.builder("ui.jfr.allocation")
+                .description("Heap allocated by all threads, estimated from JFR allocation samples")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.stream = enabled ? start(pinnedThreshold, socketReadThreshold, allocationSampleRate) : null;
+    }
+
+    @Override
+    public void close() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private RecordingStream start(Duration pinnedThreshold, Duration socketReadThreshold, String allocationSampleRate) {
+        if (!FlightRecorder.isAvailable()) {
+            log.warn("start(): JFR is not available in this JVM, no ui.jfr.* metrics");
+            return null;
+        }
+        try {
+            var recording = new RecordingStream();
+            recording.setReuse(true);
+            recording.setOrdered(false);
+            // the stream reads from the disk repository, keep only what has not been consumed yet
+            recording.setMaxAge(Duration.ofMinutes(1));
+
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(pinnedThreshold).withStackTrace();
+            recording.enable("jdk.VirtualThreadSubmitFailed").withoutStackTrace();
+            recording.enable("jdk.GarbageCollection");
+            recording.enable("jdk.ObjectAllocationSample").with("throttle", allocationSampleRate).withoutStackTrace();
+            recording.enable("jdk.SocketRead").withThreshold(socketReadThreshold).withoutStackTrace();
+            if (handlerUsage.enabled()) {
+                recording.enable("jdk.ExecutionSample").withPeriod(handlerUsage.cpuSamplePeriod());
+                recording.onEvent("jdk.ExecutionSample", this::onExecutionSample);
+            }
+
+            recording.onEvent("jdk.VirtualThreadPinned", this::onPinned);
+            recording.onEvent("jdk.VirtualThreadSubmitFailed", event -> submitFailed.increment());
+            recording.onEvent("jdk.GarbageCollection", this::onGarbageCollection);
+            recording.onEvent("jdk.ObjectAllocationSample", this::onAllocationSample);
+            recording.onEvent("jdk.SocketRead", this::onSocketRead);
+            recording.onError(e -> log.warn("JFR event stream failed: {}", e.getMessage()));
+
+            recording.startAsync();
+            if (handlerUsage.enabled()) {
+                handlerUsage.samplingStarted();
+            }
+            log.info("start(): streaming JFR events, pinning threshold {}, socket read threshold {}",
+                    pinnedThreshold, socketReadThreshold);
+            return recording;
+        } catch (RuntimeException e) {
+            // e.g. no writable repository directory, the app works fine without these metrics
+            log.warn("start(): could not start the JFR event stream: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        var frame = applicationFrame(event);
+        log.debug("Virtual thread pinned for {} in {}", event.getDuration(), frame);
+        Timer.builder("ui.jfr.virtual-thread.pinned")
+                .description("Time virtual threads spent blocked while pinned to their carrier thread")
+                .tag("frame", frame)
+                .register(meterRegistry)
+                .record(event.getDuration());
+    }
+
+    private void onAllocationSample(RecordedEvent event) {
+        var weight = event.getLong("weight");
+        allocated.increment(weight);
+        var thread = event.getThread();
+        if (thread != null && thread.isVirtual()) {
+            handlerUsage.allocationSampled(thread.getJavaThreadId(), event.getStartTime(), weight);
+        }
+    }
+
+    private void onExecutionSample(RecordedEvent event) {
+        var thread = event.getThread("sampledThread");
+        if (thread != null && thread.isVirtual()) {
+            handlerUsage.executionSampled(thread.getJavaThreadId(), event.getStartTime());
+        }
+    }
+
+    private void onGarbageCollection(RecordedEvent event) {
+        Timer.builder("ui.jfr.gc.pause")
+                .description("Sum of the pauses of a garbage collection")
+                .tag("collector", String.valueOf(event.getString("name")))
+                .tag("cause", String.valueOf(event.getString("cause")))
+                .register(meterRegistry)
+                .record(event.getDuration("sumOfPauses"));
+    }
+
+    private void onSocketRead(RecordedEvent event) {
+        var host = event.getString("host");
+        Timer.builder("ui.jfr.socket.read")
+                .description("Blocking socket reads that took longer than the threshold")
+                .tag("host", host == null || host.isEmpty() ? String.valueOf(event.getString("address")) : host)
+                .register(meterRegistry)
+                .record(event.getDuration());
+    }
+
+    /**
+     * The innermost frame of our own code, e.g. api.DashboardController.fetchPage. Frames of Spring
+     * proxies are skipped. JFR keeps the top 64 frames by default, "unknown" if none of them is ours.
+     */
+    private static String applicationFrame(RecordedEvent event) {
+        var stackTrace = event.getStackTrace();
+        if (stackTrace == null) {
+            return "unknown";
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            if (!frame.isJavaFrame()) {
+                continue;
+            }
+            var type = frame.getMethod().getType().getName();
+            if (type.startsWith(APPLICATION_PACKAGE) && !type.contains("$$")) {
+                return type.substring(APPLICATION_PACKAGE.length()) + "." + frame.getMethod().getName();
+            }
+        }
+        return "unknown";
+    }
+}
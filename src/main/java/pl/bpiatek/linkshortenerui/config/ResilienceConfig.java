@@ -0,0 +1,72 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.IOException;
+import java.time.Duration;
+
+@Configuration
+class ResilienceConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ResilienceConfig.class);
+
+    @Bean
+    CircuitBreakerRegistry circuitBreakerRegistry(MeterRegistry meterRegistry) {
+        var registry = CircuitBreakerRegistry.ofDefaults();
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+        return registry;
+    }
+
+    /**
+     * Opens when too many gateway calls fail (I/O errors, 5xx) or are slow, so requests fail fast
+     * instead of each virtual thread waiting for the read timeout. 4xx responses are answers from
+     * a healthy gateway and count as successful calls.
+     */
+    @Bean
+    CircuitBreaker gatewayCircuitBreaker(
+            CircuitBreakerRegistry registry,
+            MeterRegistry meterRegistry,
+            @Value("${api.gateway.circuit-breaker.failure-rate-threshold:50}") float failureRateThreshold,
+            @Value("${api.gateway.circuit-breaker.slow-call-rate-threshold:80}") float slowCallRateThreshold,
+            @Value("${api.gateway.circuit-breaker.slow-call-duration:2s}") Duration slowCallDuration,
+            @Value("${api.gateway.circuit-breaker.sliding-window-size:20}") int slidingWindowSize,
+            @Value("${api.gateway.circuit-breaker.minimum-calls:10}") int minimumCalls,
+            @Value("${api.gateway.circuit-breaker.open-duration:15s}") Duration openDuration) {
+        var config = CircuitBreakerConfig.custom()
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallRateThreshold(slowCallRateThreshold)
+                .slowCallDurationThreshold(slowCallDuration)
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(minimumCalls)
+                .waitDurationInOpenState(openDuration)
+                .permittedNumberOfCallsInHalfOpenState(3)
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .recordExceptions(IOException.class, HttpServerErrorException.class)
+                .build();
+
+        var circuitBreaker = registry.circuitBreaker("api-gateway", config);
+        circuitBreaker.getEventPublisher().onStateTransition(event -> {
+            var transition = event.getStateTransition();
+            log.warn("Gateway circuit breaker {} -> {}", transition.getFromState(), transition.getToState());
+            Counter.builder("ui.gateway.circuit.transitions")
+                    .description("State transitions of the gateway circuit breaker")
+                    .tag("from", transition.getFromState().name())
+                    .tag("to", transition.getToState().name())
+                    .register(meterRegistry)
+                    .increment();
+        });
+        return circuitBreaker;
+    }
+}
@@ -0,0 +1,47 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.CacheControl;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.ResourceUrlEncodingFilter;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+
+import java.time.Duration;
+
+/**
+ * Serves the self-hosted assets under /vendor with content-hash versioned URLs, so they can be
+ * cached forever: a new version of a file is a new URL. Templates link them with {@code @{/vendor/...}},
+ * which the {@link ResourceUrlEncodingFilter} rewrites to the versioned URL.
+ * <p>
+ * Precompressed .gz variants made at build time are served when the browser accepts gzip.
+ */
+@Configuration
+class StaticResourceConfig implements WebMvcConfigurer {
+
+    private final Duration maxAge;
+
+    StaticResourceConfig(@Value("${static.vendor.max-age:365d}") Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler("/vendor/**")
+                .addResourceLocations("classpath:/static/vendor/")
+                .setCacheControl(CacheControl.maxAge(maxAge).cachePublic().immutable())
+                .resourceChain(true)
+                // must come before the version resolver, see EncodedResourceResolver
+                .addResolver(new EncodedResourceResolver())
+                .addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"));
+    }
+
+    @Bean
+    FilterRegistrationBean<ResourceUrlEncodingFilter> resourceUrlEncodingFilter() {
+        return new FilterRegistrationBean<>(new ResourceUrlEncodingFilter());
+    }
+}
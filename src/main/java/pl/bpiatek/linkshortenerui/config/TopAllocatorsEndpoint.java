@@ -0,0 +1,30 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.List;
+
+/**
+ * /actuator/allocators: the controller handlers that allocated the most heap within the window of
+ * {@link HandlerUsageMeter}, with their CPU time. Has to be added to management.endpoints.web.exposure.include.
+ */
+@Endpoint(id = "allocators")
+class TopAllocatorsEndpoint {
+
+    private final HandlerUsageMeter meter;
+    private final int limit;
+
+    record TopAllocators(long windowSeconds, List<HandlerUsageMeter.HandlerTotals> handlers) {
+    }
+
+    TopAllocatorsEndpoint(HandlerUsageMeter meter, int limit) {
+        this.meter = meter;
+        this.limit = limit;
+    }
+
+    @ReadOperation
+    public TopAllocators topAllocators() {
+        return new TopAllocators(meter.window().toSeconds(), meter.topAllocators(limit));
+    }
+}
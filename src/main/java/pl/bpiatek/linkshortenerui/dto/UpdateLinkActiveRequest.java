@@ -0,0 +1,7 @@
+package pl.bpiatek.linkshortenerui.dto;
+
+/**
+ * PATCH body that only switches a link on or off, the other fields of the link are left alone.
+ */
+public record UpdateLinkActiveRequest(Boolean isActive) {
+}
@@ -63,25 +63,31 @@ public class BackendErrorMapper {
      * It puts the error into FlashAttributes so it survives the redirect.
      */
     public void map(RestClientResponseException e, RedirectAttributes redirectAttributes) {
+        redirectAttributes.addFlashAttribute("error", message(e));
+    }
+
+    /**
+     * Use this when the error is reported outside of a page model (bulk operations, per-row results).
+     * Picks the most relevant message the same way the redirect variant does.
+     */
+    public String message(RestClientResponseException e) {
         log.info("Backend API Error: {} - {}", e.getStatusCode(), e.getResponseBodyAsString());
 
         var apiError = parseError(e);
 
         if (apiError == null) {
-            redirectAttributes.addFlashAttribute("error", "Request failed with status: " + e.getStatusCode());
-            return;
+            return "Request failed with status: " + e.getStatusCode();
         }
 
         // For redirects, we can't easily map to specific fields on the next page.
         // We pick the most relevant message to show in the Global Alert.
         if (hasValidationErrors(apiError)) {
             // Show the message of the first validation error found
-            String firstMsg = apiError.validationErrors().get(0).message();
-            redirectAttributes.addFlashAttribute("error", firstMsg);
+            return apiError.validationErrors().get(0).message();
         } else if (apiError.detail() != null) {
-            redirectAttributes.addFlashAttribute("error", apiError.detail());
+            return apiError.detail();
         } else {
-            redirectAttributes.addFlashAttribute("error", "An unexpected error occurred.");
+            return "An unexpected error occurred.";
         }
     }
 
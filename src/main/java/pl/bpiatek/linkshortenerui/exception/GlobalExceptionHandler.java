@@ -6,14 +6,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.ControllerAdvice;
-import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.RequestAttribute;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.servlet.resource.NoResourceFoundException;
-import pl.bpiatek.linkshortenerui.api.TokenExtractor;
+import pl.bpiatek.linkshortenerui.api.AuthContext;
 
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.UNAUTHORIZED;
@@ -23,12 +23,6 @@ public class GlobalExceptionHandler {
 
     private static final Logger log = LoggerFactory.getLogger(GlobalExceptionHandler.class);
 
-    private final TokenExtractor tokenExtractor;
-
-    public GlobalExceptionHandler(TokenExtractor tokenExtractor) {
-        this.tokenExtractor = tokenExtractor;
-    }
-
     /**
      * Handles ALL errors coming from the Backend API (RestTemplate/RestClient).
      * This covers 4xx (HttpClientErrorException) and 5xx (HttpServerErrorException).
@@ -88,10 +82,10 @@ public class GlobalExceptionHandler {
     }
 
     @ModelAttribute("userEmail")
-    public String populateUserEmail(@CookieValue(value = "jwt", required = false) String jwt) {
-        if (jwt == null || jwt.isBlank()) {
+    public String populateUserEmail(@RequestAttribute(name = AuthContext.ATTRIBUTE, required = false) AuthContext auth) {
+        if (auth == null || !auth.hasAccessToken()) {
             return null;
         }
-        return tokenExtractor.extractEmail(jwt);
+        return auth.email();
     }
 }
\ No newline at end of file
@@ -0,0 +1,331 @@
+package pl.bpiatek.linkshortenerui;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * In-process stand-in for the API gateway: the auth, links and dashboard endpoints the UI calls,
+ * answered with data of the same shape after a latency drawn from a log-normal distribution. A share
+ * of the calls fails with 503 to exercise the circuit breaker and the stale fallbacks.
+ * <p>
+ * Every user sees the same links, ids 1..linksPerUser, so the driver can pick ids without parsing pages.
+ * Shared by the tests and the load test, calls are counted per path so tests can assert on them.
+ */
+public final class StubGateway implements AutoCloseable {
+
+    private static final Instant CREATED = Instant.parse("2025-06-01T12:00:00Z");
+
+    private final Behaviour behaviour;
+    private final int linksPerUser;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpServer server;
+    private final Map<String, byte[]> pages = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Map<String, LongAdder> callsByPath = new ConcurrentHashMap<>();
+    private volatile boolean down;
+
+    /**
+     * @param medianLatency latency of half of the calls
+     * @param p99Latency    latency exceeded by 1% of the calls, sets the spread of the distribution
+     * @param errorRate     share of calls answered with 503, 0 to 1
+     */
+    public record Behaviour(Duration medianLatency, Duration p99Latency, double errorRate) {
+
+        // z-score of the 99th percentile of the standard normal distribution
+        private static final double Z_99 = 2.326;
+
+        long sampleLatencyNanos() {
+            var median = medianLatency.toNanos();
+            if (median <= 0) {
+                return 0;
+            }
+            var sigma = Math.log((double) Math.max(p99Latency.toNanos(), median) / median) / Z_99;
+            return (long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+
+        boolean sampleFailure() {
+            return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+        }
+    }
+
+    public StubGateway(Behaviour behaviour, int linksPerUser) throws IOException {
+        this.behaviour = behaviour;
+        this.linksPerUser = linksPerUser;
+        this.objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/users/auth/", this::auth);
+        server.createContext("/dashboard/links", this::dashboardLinks);
+        server.createContext("/links", this::links);
+        server.start();
+    }
+
+    public URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    public long calls() {
+        return calls.get();
+    }
+
+    /**
+     * Calls answered for the given path, e.g. /users/auth/refresh, including failed ones.
+     */
+    public long calls(String path) {
+        var counter = callsByPath.get(path);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    /**
+     * While down every call is answered with 503, on top of the error rate of the behaviour.
+     */
+    public void down(boolean down) {
+        this.down = down;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void auth(HttpExchange exchange) throws IOException {
+        var path = exchange.getRequestURI().getPath();
+        switch (path) {
+            case "/users/auth/login", "/users/auth/refresh" -> reply(exchange, 200, Map.of(
+                    "accessToken", accessToken(),
+                    "refreshToken", "refresh-" + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE)));
+            case "/users/auth/logout" -> reply(exchange, 204, null);
+            default -> reply(exchange, 404, problem(404, "Not Found"));
+        }
+    }
+
+    private void dashboardLinks(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange)) {
+            return;
+        }
+        var path = exchange.getRequestURI().getPath();
+        if (path.equals("/dashboard/links") || path.equals("/dashboard/links/")) {
+            var query = query(exchange.getRequestURI());
+            var page = parseInt(query.get("page"), 0);
+            var size = parseInt(query.get("size"), 20);
+            reply(exchange, pages.computeIfAbsent(page + ":" + size, key -> json(page(page, size))));
+            return;
+        }
+        var id = linkId(path.substring("/dashboard/links/".length()));
+        if (id < 0) {
+            reply(exchange, 404, problem(404, "Link not found"));
+            return;
+        }
+        reply(exchange, 200, details(id));
+    }
+
+    private void links(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange)) {
+            return;
+        }
+        var path = exchange.getRequestURI().getPath();
+        var method = exchange.getRequestMethod();
+        if (path.equals("/links") && method.equals("POST")) {
+            exchange.getRequestBody().readAllBytes();
+            reply(exchange, 201, Map.of("shortUrl", "s" + ThreadLocalRandom.current().nextInt(1_000_000), "longUrl", "https://example.com"));
+            return;
+        }
+        var id = path.startsWith("/links/") ? linkId(path.substring("/links/".length())) : -1;
+        if (id < 0) {
+            reply(exchange, 404, problem(404, "Link not found"));
+            return;
+        }
+        switch (method) {
+            case "GET" -> reply(exchange, 200, link(id));
+            case "PATCH" -> {
+                exchange.getRequestBody().readAllBytes();
+                reply(exchange, 200, link(id));
+            }
+            case "DELETE" -> reply(exchange, 204, null);
+            default -> reply(exchange, 405, problem(405, "Method Not Allowed"));
+        }
+    }
+
+    private boolean authorized(HttpExchange exchange) throws IOException {
+        var authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            reply(exchange, 401, problem(401, "Unauthorized"));
+            return false;
+        }
+        return true;
+    }
+
+    private void reply(HttpExchange exchange, int status, Object body) throws IOException {
+        reply(exchange, status, body != null ? json(body) : null);
+    }
+
+    private void reply(HttpExchange exchange, byte[] body) throws IOException {
+        reply(exchange, 200, body);
+    }
+
+    private void reply(HttpExchange exchange, int status, byte[] body) throws IOException {
+        calls.incrementAndGet();
+        callsByPath.computeIfAbsent(exchange.getRequestURI().getPath(), key -> new LongAdder()).increment();
+        try (exchange) {
+            var latency = behaviour.sampleLatencyNanos();
+            if (latency > 0) {
+                TimeUnit.NANOSECONDS.sleep(latency);
+            }
+            if (down || behaviour.sampleFailure()) {
+                failures.incrementAndGet();
+                status = 503;
+                body = json(problem(503, "Service Unavailable"));
+            }
+            if (body == null) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", status < 400 ? "application/json" : "application/problem+json");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String accessToken() {
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        var now = Instant.now();
+        var header = encoder.encodeToString("{\"alg\":\"RS256\",\"typ\":\"JWT\"}".getBytes(UTF_8));
+        var userId = "user-" + ThreadLocalRandom.current().nextInt(1_000_000);
+        var payload = encoder.encodeToString(("{\"sub\":\"" + userId + "\",\"userId\":\"" + userId
+                + "\",\"email\":\"" + userId + "@example.com\",\"iat\":" + now.getEpochSecond()
+                + ",\"exp\":" + now.plus(15, ChronoUnit.MINUTES).getEpochSecond() + "}").getBytes(UTF_8));
+        var signature = new byte[256];
+        ThreadLocalRandom.current().nextBytes(signature);
+        return header + "." + payload + "." + encoder.encodeToString(signature);
+    }
+
+    private Map<String, Object> page(int page, int size) {
+        var content = new ArrayList<Map<String, Object>>();
+        for (var id = page * size + 1; id <= Math.min((page + 1) * size, linksPerUser); id++) {
+            content.add(link(id));
+        }
+        var json = new LinkedHashMap<String, Object>();
+        json.put("content", content);
+        json.put("page", page);
+        json.put("size", size);
+        json.put("totalElements", linksPerUser);
+        json.put("totalPages", size > 0 ? (linksPerUser + size - 1) / size : 0);
+        return json;
+    }
+
+    private Map<String, Object> link(int id) {
+        var json = new LinkedHashMap<String, Object>();
+        json.put("id", id);
+        json.put("linkId", String.valueOf(id));
+        json.put("userId", "user");
+        json.put("shortUrl", "s" + Integer.toString(1_000_000 + id, 36));
+        json.put("longUrl", "https://www.example.com/articles/" + id + "/a-reasonably-long-slug?utm_source=newsletter&utm_campaign=" + id);
+        json.put("title", id % 3 == 0 ? null : "Link number " + id);
+        json.put("isActive", id % 7 != 0);
+        json.put("createdAt", CREATED.minus(id, ChronoUnit.HOURS));
+        json.put("updatedAt", CREATED);
+        json.put("totalClicks", (id * 7919) % 5_000);
+        return json;
+    }
+
+    private Map<String, Object> details(int id) {
+        var link = link(id);
+        var json = new LinkedHashMap<String, Object>();
+        json.put("linkId", link.get("linkId"));
+        json.put("shortUrl", link.get("shortUrl"));
+        json.put("longUrl", link.get("longUrl"));
+        json.put("title", link.get("title"));
+        json.put("active", link.get("isActive"));
+        json.put("createdAt", link.get("createdAt"));
+        json.put("updatedAt", link.get("updatedAt"));
+        json.put("totalClicks", link.get("totalClicks"));
+        json.put("clicksByCountry", metrics("PL", "DE", "US", "GB", "FR", "NL", "CZ", "UA"));
+        json.put("clicksByDevice", metrics("Desktop", "Mobile", "Tablet"));
+        json.put("clicksByOs", metrics("Windows", "Android", "iOS", "macOS", "Linux"));
+        return json;
+    }
+
+    private static List<Map<String, Object>> metrics(String... keys) {
+        var metrics = new ArrayList<Map<String, Object>>();
+        for (var i = 0; i < keys.length; i++) {
+            metrics.add(Map.of("key", keys[i], "value", (keys.length - i) * 37L));
+        }
+        return metrics;
+    }
+
+    private static Map<String, Object> problem(int status, String title) {
+        return Map.of("type", "about:blank", "title", title, "status", status, "detail", title);
+    }
+
+    private int linkId(String segment) {
+        var id = parseInt(segment, -1);
+        return id >= 1 && id <= linksPerUser ? id : -1;
+    }
+
+    private static Map<String, String> query(URI uri) {
+        var query = new LinkedHashMap<String, String>();
+        if (uri.getRawQuery() != null) {
+            for (var parameter : uri.getRawQuery().split("&")) {
+                var separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    query.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static int parseInt(String value, int fallback) {
+        try {
+            return value != null ? Integer.parseInt(value) : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private byte[] json(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
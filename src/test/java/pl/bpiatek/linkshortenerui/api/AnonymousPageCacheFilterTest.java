@@ -0,0 +1,83 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnonymousPageCacheFilterTest {
+
+    private static final String PAGE = "<html><body>Log in</body></html>";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AnonymousPageCacheFilter filter = new AnonymousPageCacheFilter(meterRegistry, true, true, Duration.ofMinutes(10));
+    private final AtomicInteger renders = new AtomicInteger();
+
+    @Test
+    void firstRequestIsCountedAsAMissOnly() throws Exception {
+        var response = get(new MockHttpServletRequest("GET", "/login"));
+
+        assertThat(response.getContentAsString()).isEqualTo(PAGE);
+        assertThat(count("miss")).isEqualTo(1);
+        assertThat(count("hit")).isZero();
+        assertThat(count("not_modified")).isZero();
+    }
+
+    @Test
+    void laterRequestsAreAnsweredFromTheCache() throws Exception {
+        var first = get(new MockHttpServletRequest("GET", "/login"));
+        var second = get(new MockHttpServletRequest("GET", "/login"));
+
+        var revalidation = new MockHttpServletRequest("GET", "/login");
+        revalidation.addHeader(HttpHeaders.IF_NONE_MATCH, first.getHeader(HttpHeaders.ETAG));
+        var third = get(revalidation);
+
+        assertThat(renders).hasValue(1);
+        assertThat(second.getContentAsString()).isEqualTo(PAGE);
+        assertThat(third.getStatus()).isEqualTo(HttpServletResponse.SC_NOT_MODIFIED);
+        assertThat(count("miss")).isEqualTo(1);
+        assertThat(count("hit")).isEqualTo(1);
+        assertThat(count("not_modified")).isEqualTo(1);
+    }
+
+    @Test
+    void requestsWithAnAuthCookieAlwaysRender() throws Exception {
+        for (var i = 0; i < 2; i++) {
+            var request = new MockHttpServletRequest("GET", "/login");
+            request.setCookies(new Cookie(AuthContextFilter.ACCESS_TOKEN_COOKIE, "token"));
+            get(request);
+        }
+
+        assertThat(renders).hasValue(2);
+        assertThat(count("miss")).isZero();
+    }
+
+    private MockHttpServletResponse get(MockHttpServletRequest request) throws Exception {
+        var response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                renders.incrementAndGet();
+                response.setContentType("text/html;charset=UTF-8");
+                response.getWriter().write(PAGE);
+            }
+        }));
+        return response;
+    }
+
+    private double count(String result) {
+        return meterRegistry.counter("ui.page-cache.requests", "result", result).count();
+    }
+}
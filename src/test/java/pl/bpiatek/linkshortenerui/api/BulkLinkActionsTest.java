@@ -0,0 +1,74 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestClient;
+import pl.bpiatek.linkshortenerui.exception.BackendErrorMapper;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withNoContent;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class BulkLinkActionsTest {
+
+    private static final String GATEWAY = "http://gateway";
+
+    private final RestClient.Builder restClientBuilder = RestClient.builder().baseUrl(GATEWAY);
+    private final MockRestServiceServer gateway = MockRestServiceServer.bindTo(restClientBuilder)
+            .ignoreExpectOrder(true)
+            .build();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BulkLinkActions bulkLinkActions = new BulkLinkActions(restClientBuilder.build(),
+            Executors.newVirtualThreadPerTaskExecutor(), new BackendErrorMapper(), meterRegistry, 4);
+
+    @AfterEach
+    void verifyGateway() {
+        gateway.verify();
+    }
+
+    @Test
+    void deactivationPatchesOnlyTheActiveFlag() {
+        for (var linkId : List.of("1", "2")) {
+            gateway.expect(requestTo(GATEWAY + "/links/" + linkId))
+                    .andExpect(method(HttpMethod.PATCH))
+                    .andExpect(header("Authorization", "Bearer token"))
+                    // strict: a null longUrl or title in the body would wipe them on the gateway
+                    .andExpect(content().json("{\"isActive\":false}", true))
+                    .andRespond(withSuccess());
+        }
+
+        var outcome = bulkLinkActions.apply(BulkLinkActions.Action.DEACTIVATE, List.of("1", "2"), "token");
+
+        assertThat(outcome.succeeded()).isEqualTo(2);
+        assertThat(outcome.failures()).isEmpty();
+    }
+
+    @Test
+    void failuresAreCollectedPerLink() {
+        gateway.expect(requestTo(GATEWAY + "/links/1"))
+                .andExpect(method(HttpMethod.DELETE))
+                .andRespond(withNoContent());
+        gateway.expect(requestTo(GATEWAY + "/links/2"))
+                .andExpect(method(HttpMethod.DELETE))
+                .andRespond(withStatus(HttpStatus.UNAUTHORIZED));
+
+        var outcome = bulkLinkActions.apply(BulkLinkActions.Action.DELETE, List.of("1", "2"), "token");
+
+        assertThat(outcome.succeeded()).isEqualTo(1);
+        assertThat(outcome.failures()).containsOnlyKeys("2");
+        assertThat(meterRegistry.counter("ui.links.bulk.items", "action", "delete", "result", "failure").count())
+                .isEqualTo(1);
+    }
+}
@@ -0,0 +1,82 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.web.context.request.ServletWebRequest;
+import pl.bpiatek.linkshortenerui.dto.DashboardLinkResponse;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.MetricEntryResponse;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConditionalRenderingTest {
+
+    private static final Instant CREATED = Instant.parse("2025-06-01T12:00:00Z");
+    private static final AuthContext AUTH = new AuthContext("token", "refresh", new JwtClaims("42", "42", "jan@example.com", null), true);
+
+    @Test
+    void everyRenderedFieldOfALinkChangesTheDashboardHash() {
+        var original = ConditionalRendering.dashboardHash(AUTH, page(link("Title", "https://example.com", "abc", CREATED)));
+
+        // an edit that leaves updatedAt as it was must not be answered with a 304
+        assertThat(ConditionalRendering.dashboardHash(AUTH, page(link("New title", "https://example.com", "abc", CREATED))))
+                .isNotEqualTo(original);
+        assertThat(ConditionalRendering.dashboardHash(AUTH, page(link("Title", "https://example.org", "abc", CREATED))))
+                .isNotEqualTo(original);
+        assertThat(ConditionalRendering.dashboardHash(AUTH, page(link("Title", "https://example.com", "xyz", CREATED))))
+                .isNotEqualTo(original);
+        assertThat(ConditionalRendering.dashboardHash(AUTH, page(link("Title", "https://example.com", "abc", CREATED.plusSeconds(1)))))
+                .isNotEqualTo(original);
+        assertThat(ConditionalRendering.dashboardHash(AUTH, page(link("Title", "https://example.com", "abc", CREATED))))
+                .isEqualTo(original);
+    }
+
+    @Test
+    void titleChangesTheLinkDetailsHash() {
+        var original = ConditionalRendering.linkDetailsHash(AUTH, details("Title"));
+
+        assertThat(ConditionalRendering.linkDetailsHash(AUTH, details("New title"))).isNotEqualTo(original);
+        assertThat(ConditionalRendering.linkDetailsHash(AUTH, details("Title"))).isEqualTo(original);
+    }
+
+    @Test
+    void unchangedDataIsAnsweredWithNotModified() {
+        var meterRegistry = new SimpleMeterRegistry();
+        var conditionalRendering = new ConditionalRendering(meterRegistry);
+        var hash = ConditionalRendering.linkDetailsHash(AUTH, details("Title"));
+
+        var first = new MockHttpServletResponse();
+        var firstRequest = new MockHttpServletRequest("GET", "/dashboard/links/1");
+        assertThat(conditionalRendering.notModified(new ServletWebRequest(firstRequest, first), first,
+                new ExtendedModelMap(), "link-details", hash)).isFalse();
+
+        var second = new MockHttpServletResponse();
+        var secondRequest = new MockHttpServletRequest("GET", "/dashboard/links/1");
+        secondRequest.addHeader(HttpHeaders.IF_NONE_MATCH, first.getHeader(HttpHeaders.ETAG));
+        assertThat(conditionalRendering.notModified(new ServletWebRequest(secondRequest, second), second,
+                new ExtendedModelMap(), "link-details", hash)).isTrue();
+        assertThat(meterRegistry.counter("ui.http.not-modified", "view", "link-details").count()).isEqualTo(1);
+    }
+
+    private static LinkDto link(String title, String longUrl, String shortUrl, Instant createdAt) {
+        return new LinkDto(1L, "1", "42", shortUrl, longUrl, title, true, createdAt, CREATED, 7);
+    }
+
+    private static PageResponse<LinkDto> page(LinkDto link) {
+        return new PageResponse<>(List.of(link), 0, 20, 1, 1);
+    }
+
+    private static DashboardLinkResponse details(String title) {
+        var countries = List.of(new MetricEntryResponse("PL", 5));
+        return new DashboardLinkResponse("1", "abc", "https://example.com", title, true, CREATED, CREATED, 5,
+                countries, List.of(), List.of());
+    }
+}
@@ -0,0 +1,113 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DashboardPageCacheTest {
+
+    private static final String SORT = "created_at,desc";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DashboardPrefetcher prefetcher = new DashboardPrefetcher(new TokenExtractor(new ObjectMapper()),
+            new AuthenticatedTokens(), Executors.newVirtualThreadPerTaskExecutor(), meterRegistry, false, 3, 4, Duration.ofMinutes(1));
+    private final DashboardPageCache cache = new DashboardPageCache(meterRegistry, new GatewayReadCoalescer(meterRegistry),
+            prefetcher, Duration.ofMinutes(1), DataSize.ofMegabytes(1));
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void servesACachedPageUntilTheUserIsInvalidated() {
+        var first = get("user-1");
+        assertThat(get("user-1")).isSameAs(first);
+        assertThat(loads).hasValue(1);
+
+        cache.invalidate("user-1");
+
+        assertThat(get("user-1")).isNotSameAs(first);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void pagesWithoutAnAuthenticatedUserAreNeverCached() {
+        get(null);
+        get(null);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void loadThatStartedBeforeAnInvalidationIsNotCached() {
+        var stale = cache.get("user-1", 0, 20, SORT, () -> {
+            // the user changes a link while the gateway is still answering with the old list
+            cache.invalidate("user-1");
+            return page("stale");
+        });
+
+        assertThat(get("user-1")).isNotSameAs(stale);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void loadRacingAnInvalidationOnAnotherThreadIsNotCached() throws Exception {
+        var loading = new CountDownLatch(1);
+        var invalidated = new CountDownLatch(1);
+        try (var executor = Executors.newSingleThreadExecutor()) {
+            var load = executor.submit(() -> cache.get("user-1", 0, 20, SORT, () -> {
+                loading.countDown();
+                await(invalidated);
+                return page("stale");
+            }));
+
+            await(loading);
+            cache.invalidate("user-1");
+            invalidated.countDown();
+            var stale = load.get(10, TimeUnit.SECONDS);
+
+            assertThat(get("user-1")).isNotSameAs(stale);
+        }
+    }
+
+    @Test
+    void invalidatingOneUserKeepsTheLoadsOfOthers() {
+        var other = cache.get("user-2", 0, 20, SORT, () -> {
+            cache.invalidate("user-1");
+            return page("user-2");
+        });
+
+        assertThat(get("user-2")).isSameAs(other);
+        assertThat(loads).hasValue(0);
+    }
+
+    private PageResponse<LinkDto> get(String userId) {
+        return cache.get(userId, 0, 20, SORT, () -> {
+            loads.incrementAndGet();
+            return page(userId);
+        });
+    }
+
+    private static PageResponse<LinkDto> page(String userId) {
+        var link = new LinkDto(1L, "1", userId, "abc", "https://example.com", "Example", true, null, null, 0);
+        return new PageResponse<>(List.of(link), 0, 20, 1, 1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
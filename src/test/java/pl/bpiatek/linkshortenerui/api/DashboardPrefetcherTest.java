@@ -0,0 +1,100 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pl.bpiatek.linkshortenerui.dto.DashboardLinkResponse;
+import pl.bpiatek.linkshortenerui.dto.LinkDto;
+import pl.bpiatek.linkshortenerui.dto.PageResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DashboardPrefetcherTest {
+
+    private static final String SORT = "created_at,desc";
+    private static final String ACCEPTED = token("{\"sub\":\"42\",\"userId\":\"42\"}", "real");
+    // names the same user, but the gateway has never seen it
+    private static final String FORGED = token("{\"sub\":\"42\",\"userId\":\"42\"}", "forged");
+
+    private final AuthenticatedTokens authenticatedTokens = new AuthenticatedTokens();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final DashboardPrefetcher prefetcher = new DashboardPrefetcher(new TokenExtractor(new ObjectMapper()),
+            authenticatedTokens, executor, new SimpleMeterRegistry(), true, 3, 4, Duration.ofMinutes(1));
+    private final List<String> gatewayTokens = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void nextPageIsPrefetchedWithTheTokenOfTheRequest() throws Exception {
+        authenticatedTokens.add(ACCEPTED);
+
+        afterResponse(ACCEPTED);
+        awaitFetches();
+
+        assertThat(gatewayTokens).containsExactly(ACCEPTED);
+        assertThat(prefetcher.takePage(FORGED, 1, 20, SORT)).isNull();
+        assertThat(prefetcher.takePage(ACCEPTED, 1, 20, SORT)).isNotNull();
+    }
+
+    @Test
+    void nothingIsPrefetchedForATokenTheGatewayHasNotAccepted() throws Exception {
+        authenticatedTokens.add(ACCEPTED);
+
+        afterResponse(FORGED);
+        awaitFetches();
+
+        assertThat(gatewayTokens).isEmpty();
+    }
+
+    @Test
+    void pageFetchedAcrossAChangeIsDropped() throws Exception {
+        authenticatedTokens.add(ACCEPTED);
+
+        prefetcher.afterResponse("42", ACCEPTED, 0, 20, SORT, page(), jwt -> {
+            // the user changes a link while the next page is being fetched
+            prefetcher.forget("42");
+            return page();
+        }, (jwt, linkId) -> null);
+        awaitFetches();
+
+        assertThat(prefetcher.takePage(ACCEPTED, 1, 20, SORT)).isNull();
+    }
+
+    private void afterResponse(String accessToken) {
+        prefetcher.afterResponse("42", accessToken, 0, 20, SORT, page(), jwt -> {
+            gatewayTokens.add(jwt);
+            return page();
+        }, (jwt, linkId) -> (DashboardLinkResponse) null);
+    }
+
+    private void awaitFetches() throws InterruptedException {
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static PageResponse<LinkDto> page() {
+        // no clicks, only the next page is prefetched
+        var link = new LinkDto(1L, "1", "42", "abc", "https://example.com", "Example", true, null, null, 0);
+        return new PageResponse<>(List.of(link), 0, 20, 40, 2);
+    }
+
+    private static String token(String payload, String signature) {
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"HS256\"}".getBytes(UTF_8)) + "."
+                + encoder.encodeToString(payload.getBytes(UTF_8)) + "."
+                + encoder.encodeToString(signature.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,181 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import pl.bpiatek.linkshortenerui.StubGateway;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Fault injection against the stub gateway: the gateway goes down after a user has seen the dashboard.
+ * The breaker opens after the first failure, so every way of reaching the gateway is covered.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.config.import=",
+        "spring.cloud.config.enabled=false",
+        "spring.boot.admin.client.enabled=false",
+        "ui.jfr.enabled=false",
+        // every dashboard request reaches the gateway, only the stale fallback can answer while it is down
+        "dashboard.cache.ttl=0s",
+        "api.gateway.client.http-cache.enabled=false",
+        "api.gateway.circuit-breaker.sliding-window-size=2",
+        "api.gateway.circuit-breaker.minimum-calls=2",
+        "api.gateway.circuit-breaker.open-duration=1m"
+})
+class GatewayOutageTest {
+
+    private static final String LINK_TITLE = "Link number 1";
+    private static final String STALE_NOTICE = "Our servers are having trouble";
+
+    private static final StubGateway gateway = startGateway();
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private CircuitBreaker gatewayCircuitBreaker;
+
+    @DynamicPropertySource
+    static void gatewayProperties(DynamicPropertyRegistry registry) {
+        registry.add("api.gateway.url", () -> gateway.uri().toString());
+        registry.add("api.gateway.host-header", () -> gateway.uri().getAuthority());
+    }
+
+    @AfterAll
+    static void stopGateway() {
+        gateway.close();
+    }
+
+    @BeforeEach
+    void gatewayUp() {
+        gateway.down(false);
+        gatewayCircuitBreaker.reset();
+    }
+
+    @Test
+    void lastKnownDashboardIsServedWhileTheGatewayIsDown() throws Exception {
+        var cookies = login();
+        var page = get("/dashboard", cookies);
+        assertThat(page.body()).contains(LINK_TITLE).doesNotContain(STALE_NOTICE);
+
+        gateway.down(true);
+        var failing = get("/dashboard", cookies);
+        assertThat(failing.body()).contains(LINK_TITLE, STALE_NOTICE);
+        assertThat(gatewayCircuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        var callsWhileOpen = gateway.calls("/dashboard/links");
+        var open = get("/dashboard", cookies);
+        assertThat(open.statusCode()).isEqualTo(200);
+        assertThat(open.body()).contains(LINK_TITLE, STALE_NOTICE);
+        assertThat(gateway.calls("/dashboard/links")).isEqualTo(callsWhileOpen);
+        assertThat(clearedCookies(failing)).isEmpty();
+        assertThat(clearedCookies(open)).isEmpty();
+    }
+
+    @Test
+    void expiredSessionIsKeptWhileTheBreakerIsOpen() throws Exception {
+        var cookies = login();
+        get("/dashboard", cookies);
+        gateway.down(true);
+        get("/dashboard", cookies);
+        assertThat(gatewayCircuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        // the access cookie has expired, the refresh is not permitted
+        var refreshesBefore = gateway.calls("/users/auth/refresh");
+        var withoutAccessToken = Map.of("refresh_jwt", cookies.get("refresh_jwt"));
+        var response = get("/dashboard", withoutAccessToken);
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(gateway.calls("/users/auth/refresh")).isEqualTo(refreshesBefore);
+        assertThat(clearedCookies(response)).isEmpty();
+    }
+
+    @Test
+    void forgedTokenGetsNoStaleData() throws Exception {
+        var cookies = login();
+        get("/dashboard", cookies);
+        gateway.down(true);
+
+        // the victim's claims with a signature the gateway never issued
+        var token = cookies.get("jwt");
+        var forged = token.substring(0, token.lastIndexOf('.') + 1) + "Zm9yZ2Vk";
+        var response = get("/dashboard", Map.of("jwt", forged));
+
+        assertThat(response.body()).doesNotContain(LINK_TITLE).contains("Could not load links.");
+        assertThat(get("/dashboard", cookies).body()).contains(LINK_TITLE, STALE_NOTICE);
+    }
+
+    private Map<String, String> login() throws Exception {
+        var response = httpClient.send(HttpRequest.newBuilder(uri("/login"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString("email=user%40example.com&password=secret"))
+                        .build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertThat(response.statusCode()).isEqualTo(302);
+        var cookies = setCookies(response);
+        assertThat(cookies).containsKeys("jwt", "refresh_jwt");
+        return cookies;
+    }
+
+    private HttpResponse<String> get(String path, Map<String, String> cookies) throws Exception {
+        var cookieHeader = cookies.entrySet().stream()
+                .map(cookie -> cookie.getKey() + "=" + cookie.getValue())
+                .collect(Collectors.joining("; "));
+        return httpClient.send(HttpRequest.newBuilder(uri(path))
+                        .header("Cookie", cookieHeader)
+                        .timeout(Duration.ofSeconds(10))
+                        .GET()
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + port + path);
+    }
+
+    private static Map<String, String> setCookies(HttpResponse<?> response) {
+        var cookies = new LinkedHashMap<String, String>();
+        for (var header : response.headers().allValues("Set-Cookie")) {
+            var pair = header.split(";", 2)[0];
+            var separator = pair.indexOf('=');
+            cookies.put(pair.substring(0, separator), pair.substring(separator + 1));
+        }
+        return cookies;
+    }
+
+    private static Map<String, String> clearedCookies(HttpResponse<?> response) {
+        var cleared = setCookies(response);
+        cleared.values().removeIf(value -> !value.isEmpty());
+        return cleared;
+    }
+
+    private static StubGateway startGateway() {
+        try {
+            return new StubGateway(new StubGateway.Behaviour(Duration.ZERO, Duration.ZERO, 0), 30);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GatewayReadCoalescerTest {
+
+    private static final String URI = "/links/1";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final GatewayReadCoalescer coalescer = new GatewayReadCoalescer(meterRegistry);
+
+    @Test
+    void errorOfTheRunningCallCompletesItsJoiners() throws Exception {
+        var running = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        try (var executor = Executors.newFixedThreadPool(2)) {
+            var owner = executor.submit(() -> coalescer.get("user-1", URI, () -> {
+                running.countDown();
+                await(release);
+                throw new GatewayError();
+            }));
+            await(running);
+            var joiner = executor.submit(() -> coalescer.get("user-1", URI, () -> "not called"));
+            while (count("coalesced") < 1) {
+                Thread.onSpinWait();
+            }
+            release.countDown();
+
+            assertThatThrownBy(() -> owner.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(GatewayError.class);
+            // an incomplete call would leave the joiner waiting until the timeout
+            assertThatThrownBy(() -> joiner.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(GatewayError.class);
+        }
+    }
+
+    @Test
+    void readsWithoutAUserAreNeverShared() {
+        var calls = new AtomicInteger();
+
+        var result = coalescer.get(null, URI, () -> coalescer.get(null, URI, calls::incrementAndGet));
+
+        assertThat(result).isEqualTo(1);
+        assertThat(calls).hasValue(1);
+        assertThat(count("executed")).isZero();
+        assertThat(count("coalesced")).isZero();
+    }
+
+    @Test
+    void nothingIsKeptOnceTheCallIsDone() {
+        var calls = new AtomicInteger();
+
+        coalescer.get("user-1", URI, calls::incrementAndGet);
+        coalescer.get("user-1", URI, calls::incrementAndGet);
+
+        assertThat(calls).hasValue(2);
+        assertThat(count("executed")).isEqualTo(2);
+    }
+
+    private double count(String mode) {
+        return meterRegistry.counter("ui.gateway.reads", "mode", mode).count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class GatewayError extends Error {
+    }
+}
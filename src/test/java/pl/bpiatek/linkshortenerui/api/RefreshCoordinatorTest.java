@@ -0,0 +1,96 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+import pl.bpiatek.linkshortenerui.StubGateway;
+import pl.bpiatek.linkshortenerui.dto.RefreshRequest;
+import pl.bpiatek.linkshortenerui.dto.TokenResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RefreshCoordinatorTest {
+
+    private static final int THREADS = 32;
+    private static final String REFRESH_PATH = "/users/auth/refresh";
+
+    private StubGateway gateway;
+    private RestClient restClient;
+    private SimpleMeterRegistry meterRegistry;
+    private RefreshCoordinator coordinator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // a slow exchange, so every thread arrives while it is still in flight
+        var latency = Duration.ofMillis(300);
+        gateway = new StubGateway(new StubGateway.Behaviour(latency, latency, 0), 10);
+        restClient = RestClient.create(gateway.uri().toString());
+        meterRegistry = new SimpleMeterRegistry();
+        coordinator = new RefreshCoordinator(meterRegistry, Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        gateway.close();
+    }
+
+    @Test
+    void concurrentRefreshesOfOneTokenShareOneExchange() throws Exception {
+        var start = new CountDownLatch(1);
+        var results = new ArrayList<Future<TokenResponse>>();
+        try (var executor = Executors.newFixedThreadPool(THREADS)) {
+            for (var i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return coordinator.refresh("refresh-1", () -> exchange("refresh-1"));
+                }));
+            }
+            start.countDown();
+
+            var first = results.getFirst().get(10, TimeUnit.SECONDS);
+            for (var result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS)).isSameAs(first);
+            }
+        }
+
+        assertThat(gateway.calls(REFRESH_PATH)).isEqualTo(1);
+        assertThat(meterRegistry.counter("ui.auth.refresh.exchanges", "mode", "executed").count()).isEqualTo(1);
+    }
+
+    @Test
+    void refreshRightAfterAnExchangeReusesItsTokens() {
+        var first = coordinator.refresh("refresh-1", () -> exchange("refresh-1"));
+        var second = coordinator.refresh("refresh-1", () -> exchange("refresh-1"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(gateway.calls(REFRESH_PATH)).isEqualTo(1);
+    }
+
+    @Test
+    void differentRefreshTokensAreExchangedSeparately() {
+        var first = coordinator.refresh("refresh-1", () -> exchange("refresh-1"));
+        var second = coordinator.refresh("refresh-2", () -> exchange("refresh-2"));
+
+        assertThat(second.accessToken()).isNotEqualTo(first.accessToken());
+        assertThat(gateway.calls(REFRESH_PATH)).isEqualTo(2);
+    }
+
+    private TokenResponse exchange(String refreshToken) {
+        return restClient.post()
+                .uri(REFRESH_PATH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new RefreshRequest(refreshToken))
+                .retrieve()
+                .body(TokenResponse.class);
+    }
+}
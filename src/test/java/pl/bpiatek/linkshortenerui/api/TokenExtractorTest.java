@@ -0,0 +1,67 @@
+package pl.bpiatek.linkshortenerui.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenExtractorTest {
+
+    private static final String SIGNATURE = "c2lnbmF0dXJl";
+
+    private final TokenExtractor tokenExtractor = new TokenExtractor(new ObjectMapper());
+
+    @Test
+    void readsClaimsFromThePayload() {
+        var claims = tokenExtractor.extractClaims(token("{\"sub\":\"42\",\"roles\":[\"USER\"],\"email\":\"jan@example.com\",\"exp\":1750000000}"));
+
+        assertThat(claims.subject()).isEqualTo("42");
+        assertThat(claims.email()).isEqualTo("jan@example.com");
+        assertThat(claims.expiresAt()).isEqualTo(Instant.ofEpochSecond(1750000000));
+    }
+
+    @Test
+    void forgedPayloadNextToARealSignatureDoesNotReplaceTheCachedClaims() {
+        var real = token("{\"sub\":\"42\",\"email\":\"jan@example.com\"}");
+        var forged = token("{\"sub\":\"7\",\"email\":\"eve@example.com\"}");
+
+        tokenExtractor.extractClaims(forged);
+
+        assertThat(tokenExtractor.extractEmail(real)).isEqualTo("jan@example.com");
+        assertThat(tokenExtractor.extractEmail(forged)).isEqualTo("eve@example.com");
+    }
+
+    @Test
+    void unreadableTokensHaveNoClaims() {
+        assertThat(tokenExtractor.extractClaims("not-a-jwt")).isNull();
+        assertThat(tokenExtractor.extractClaims("header.pay+load." + SIGNATURE)).isNull();
+        assertThat(tokenExtractor.extractClaims("header." + encode("[1,2]") + "." + SIGNATURE)).isNull();
+    }
+
+    @Test
+    void decodesTheSameBytesAsTheJdkDecoder() {
+        var random = new Random(1);
+        for (var length = 0; length < 64; length++) {
+            var bytes = new byte[length];
+            random.nextBytes(bytes);
+            var unpadded = "h." + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes) + ".s";
+            var padded = "h." + Base64.getUrlEncoder().encodeToString(bytes);
+
+            assertThat(TokenExtractor.decodeBase64Url(unpadded, 2, unpadded.length() - 2)).isEqualTo(bytes);
+            assertThat(TokenExtractor.decodeBase64Url(padded, 2, padded.length())).isEqualTo(bytes);
+        }
+    }
+
+    private static String token(String payload) {
+        return encode("{\"alg\":\"RS256\"}") + "." + encode(payload) + "." + SIGNATURE;
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(UTF_8));
+    }
+}
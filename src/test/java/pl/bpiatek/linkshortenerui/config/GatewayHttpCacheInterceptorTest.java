@@ -0,0 +1,111 @@
+package pl.bpiatek.linkshortenerui.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.util.unit.DataSize;
+import pl.bpiatek.linkshortenerui.api.AuthenticatedTokens;
+import pl.bpiatek.linkshortenerui.api.JwtClaims;
+import pl.bpiatek.linkshortenerui.api.TokenExtractor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GatewayHttpCacheInterceptorTest {
+
+    private static final String ACCEPTED = "accepted-token";
+    private static final String FORGED = "forged-token";
+    private static final URI LINKS = URI.create("http://gateway/links?page=0");
+
+    private final TokenExtractor tokenExtractor = mock(TokenExtractor.class);
+    private final AuthenticatedTokens authenticatedTokens = mock(AuthenticatedTokens.class);
+    private final List<HttpRequest> gatewayRequests = new ArrayList<>();
+    private GatewayHttpCacheInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        // both tokens name the same user, only one of them was accepted by the gateway
+        when(tokenExtractor.extractClaims(anyString())).thenReturn(new JwtClaims("42", "42", "jan@example.com", null));
+        when(authenticatedTokens.contains(ACCEPTED)).thenReturn(true);
+        var settings = new GatewayClientProperties.HttpCache(true, DataSize.ofMegabytes(1), DataSize.ofKilobytes(64), Duration.ofHours(1));
+        interceptor = new GatewayHttpCacheInterceptor(settings, tokenExtractor, authenticatedTokens, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void freshEntryIsAnsweredWithoutACallForAnAcceptedToken() throws IOException {
+        get(ACCEPTED, fresh());
+
+        var cached = get(ACCEPTED, fresh());
+
+        assertThat(cached).isEqualTo("links");
+        assertThat(gatewayRequests).hasSize(1);
+    }
+
+    @Test
+    void freshEntryIsRevalidatedForATokenTheGatewayHasNotAccepted() throws IOException {
+        get(ACCEPTED, fresh());
+
+        get(FORGED, withStatus(HttpStatus.UNAUTHORIZED));
+
+        assertThat(gatewayRequests).hasSize(2);
+        assertThat(gatewayRequests.get(1).getHeaders().getIfNoneMatch()).containsExactly("\"v1\"");
+    }
+
+    @Test
+    void unsafeRequestDropsTheEntriesOfTheUser() throws IOException {
+        get(ACCEPTED, fresh());
+
+        var patch = request(HttpMethod.PATCH, URI.create("http://gateway/links/1"), ACCEPTED);
+        interceptor.intercept(patch, new byte[0], respondWith(withStatus(HttpStatus.OK))).close();
+        get(ACCEPTED, fresh());
+
+        assertThat(gatewayRequests).hasSize(3);
+    }
+
+    private String get(String token, ClientHttpResponse gatewayResponse) throws IOException {
+        try (var response = interceptor.intercept(request(HttpMethod.GET, LINKS, token), new byte[0], respondWith(gatewayResponse))) {
+            return new String(response.getBody().readAllBytes(), UTF_8);
+        }
+    }
+
+    private ClientHttpRequestExecution respondWith(ClientHttpResponse response) {
+        return (request, body) -> {
+            gatewayRequests.add(request);
+            return response;
+        };
+    }
+
+    private static MockClientHttpRequest request(HttpMethod method, URI uri, String token) {
+        var request = new MockClientHttpRequest(method, uri);
+        request.getHeaders().setBearerAuth(token);
+        return request;
+    }
+
+    private static MockClientHttpResponse fresh() {
+        var response = new MockClientHttpResponse("links".getBytes(UTF_8), HttpStatus.OK);
+        response.getHeaders().setCacheControl("private, max-age=60");
+        response.getHeaders().setETag("\"v1\"");
+        return response;
+    }
+
+    private static MockClientHttpResponse withStatus(HttpStatus status) {
+        return new MockClientHttpResponse(new byte[0], status);
+    }
+}